@@ -0,0 +1,69 @@
+package net.safeclaim;
+
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.UUID;
+
+// Minimal stand-ins for the Bukkit interfaces the claim code touches, so benchmarks run without
+// a server. Only the getters SafeClaim calls are answered; anything else returns a default.
+final class BukkitStubs {
+
+    private BukkitStubs() {
+    }
+
+    static World world(String name) {
+        UUID id = UUID.nameUUIDFromBytes(name.getBytes());
+        return stub(World.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getName":
+                    return name;
+                case "getUID":
+                    return id;
+                case "getMinHeight":
+                    return -64;
+                case "getMaxHeight":
+                    return 320;
+                default:
+                    return objectMethod(proxy, method.getName(), args);
+            }
+        });
+    }
+
+    static Block block(World world, int x, int y, int z) {
+        return stub(Block.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getWorld":
+                    return world;
+                case "getX":
+                    return x;
+                case "getY":
+                    return y;
+                case "getZ":
+                    return z;
+                default:
+                    return objectMethod(proxy, method.getName(), args);
+            }
+        });
+    }
+
+    static <T> T stub(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(BukkitStubs.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    // equals/hashCode/toString by identity, null (or a zero primitive) for everything else
+    static Object objectMethod(Object proxy, String name, Object[] args) {
+        switch (name) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "stub@" + Integer.toHexString(System.identityHashCode(proxy));
+            default:
+                return null;
+        }
+    }
+}
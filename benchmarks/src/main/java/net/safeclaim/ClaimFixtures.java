@@ -0,0 +1,47 @@
+package net.safeclaim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+// Deterministic synthetic claim sets: claims of 8-48 blocks per side laid out on a grid with
+// 64-block cells, spread round-robin over several worlds and a few hundred owners.
+final class ClaimFixtures {
+    static final int CELL = 64;
+    static final int OWNERS = 500;
+
+    private ClaimFixtures() {
+    }
+
+    static String worldName(int world) {
+        return "world_" + world;
+    }
+
+    // Number of grid cells along one side of a world holding claimCount / worlds claims
+    static int gridSide(int claimCount, int worlds) {
+        return (int) Math.ceil(Math.sqrt(Math.max(1, claimCount / worlds)));
+    }
+
+    static List<ClaimManager.Claim> claims(ClaimManager claimManager, int claimCount, int worlds, long seed) {
+        Random random = new Random(seed);
+        int side = gridSide(claimCount, worlds);
+        List<ClaimManager.Claim> claims = new ArrayList<>(claimCount);
+        for (int i = 0; i < claimCount; i++) {
+            int world = i % worlds;
+            int cell = i / worlds;
+            int x = (cell % side - side / 2) * CELL + random.nextInt(8);
+            int z = (cell / side - side / 2) * CELL + random.nextInt(8);
+            UUID owner = new UUID(0, i % OWNERS);
+            claims.add(claimManager.buildClaim(owner, "claim" + i, worldName(world),
+                    x, z, x + 8 + random.nextInt(40), z + 8 + random.nextInt(40)));
+        }
+        return claims;
+    }
+
+    static ClaimManager populatedManager(int claimCount, int worlds, long seed) {
+        ClaimManager claimManager = new ClaimManager();
+        claimManager.restoreClaims(claims(claimManager, claimCount, worlds, seed));
+        return claimManager;
+    }
+}
@@ -0,0 +1,74 @@
+package net.safeclaim;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Point lookups (the block break / damage path). Half of the probes fall inside a claim.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClaimLookupBenchmark {
+    private static final int PROBES = 4096;
+
+    @Param({"10", "1000", "10000", "100000"})
+    public int claimCount;
+
+    @Param({"4"})
+    public int worlds;
+
+    private ClaimManager claimManager;
+    private String[] probeWorlds;
+    private int[] probeX;
+    private int[] probeY;
+    private int[] probeZ;
+    private int next;
+
+    @Setup
+    public void setup() {
+        claimManager = new ClaimManager();
+        List<ClaimManager.Claim> claims = ClaimFixtures.claims(claimManager, claimCount, worlds, 42);
+        claimManager.restoreClaims(claims);
+
+        Random random = new Random(7);
+        int extent = ClaimFixtures.gridSide(claimCount, worlds) * ClaimFixtures.CELL;
+        probeWorlds = new String[PROBES];
+        probeX = new int[PROBES];
+        probeY = new int[PROBES];
+        probeZ = new int[PROBES];
+        for (int i = 0; i < PROBES; i++) {
+            if (i % 2 == 0) {
+                ClaimManager.Claim claim = claims.get(random.nextInt(claims.size()));
+                probeWorlds[i] = claim.getWorldName();
+                probeX[i] = claim.getMinX() + random.nextInt(claim.getMaxX() - claim.getMinX() + 1);
+                probeZ[i] = claim.getMinZ() + random.nextInt(claim.getMaxZ() - claim.getMinZ() + 1);
+            } else {
+                probeWorlds[i] = ClaimFixtures.worldName(random.nextInt(worlds));
+                probeX[i] = random.nextInt(extent) - extent / 2;
+                probeZ[i] = random.nextInt(extent) - extent / 2;
+            }
+            probeY[i] = 64;
+        }
+    }
+
+    @Benchmark
+    public ClaimManager.Claim lookup() {
+        int i = next++ & (PROBES - 1);
+        return claimManager.getClaimAt(probeWorlds[i], probeX[i], probeY[i], probeZ[i]);
+    }
+}
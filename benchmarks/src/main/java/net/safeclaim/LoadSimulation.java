@@ -0,0 +1,545 @@
+package net.safeclaim;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Cancellable;
+import org.bukkit.event.Event;
+import org.bukkit.event.block.Action;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockDamageEvent;
+import org.bukkit.event.entity.EntityDamageByEntityEvent;
+import org.bukkit.event.entity.EntityDamageEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+// Headless load simulation: drives ClaimListener and ClaimManager with the event traffic of a
+// busy server (block breaks and damage, interacts, PvP, mob and environmental damage,
+// explosions) on a single thread, the way the server's main thread would, and reports
+// throughput, allocation rate and worst-case handler latency per event type.
+//
+// Traffic is either synthetic (players wandering over a grid of claims, see ClaimFixtures) or
+// replayed from a trace file; --record writes the synthetic traffic as such a trace. Each tick's
+// events are built first and only the handler calls are timed, so neither event construction
+// nor the trace reader shows up in the numbers. Bukkit objects are java.lang.reflect.Proxy stubs
+// (see BukkitStubs), so absolute latencies are somewhat pessimistic.
+//
+//   java -cp target/benchmarks.jar net.safeclaim.LoadSimulation [--players 200] [--claims 50000]
+//        [--worlds 1] [--ticks 6000] [--warmup-ticks 1200] [--rate 1.0] [--seed 42]
+//        [--record <file> | --trace <file>]
+public final class LoadSimulation {
+    private static final int TICK_BUDGET_NANOS = 50_000_000;
+    private static final int EXPLOSION_RADIUS = 3;
+    private static final double INSIDE_FRACTION = 0.5;
+
+    // Event types with their synthetic rates (events per player per tick, explosions per tick)
+    enum Type {
+        INTERACT("interact", 0.25),
+        BLOCK_DAMAGE("block-damage", 0.15),
+        BLOCK_BREAK("block-break", 0.05),
+        PVP("pvp", 0.01),
+        PLAYER_HITS_MOB("player-hits-mob", 0.03),
+        MOB_HITS_PLAYER("mob-hits-player", 0.03),
+        ENVIRONMENT("environment", 0.02),
+        EXPLOSION("explosion", 0.02);
+
+        final String id;
+        final double rate;
+
+        Type(String id, double rate) {
+            this.id = id;
+            this.rate = rate;
+        }
+
+        static Type byId(String id) {
+            for (Type type : values()) {
+                if (type.id.equals(id)) {
+                    return type;
+                }
+            }
+            throw new IllegalArgumentException("Unknown event type " + id);
+        }
+    }
+
+    // One line of a trace: "<tick> <type> <world> <actor> <victim> <x> <y> <z>". Actor and victim
+    // are player numbers (-1 if none); x/y/z is the block acted on, the victim's position, or the
+    // centre of an explosion.
+    static final class TraceEvent {
+        final int tick;
+        final Type type;
+        final int world;
+        final int actor;
+        final int victim;
+        final int x;
+        final int y;
+        final int z;
+
+        TraceEvent(int tick, Type type, int world, int actor, int victim, int x, int y, int z) {
+            this.tick = tick;
+            this.type = type;
+            this.world = world;
+            this.actor = actor;
+            this.victim = victim;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        static TraceEvent parse(String line) {
+            String[] parts = line.trim().split("\\s+");
+            return new TraceEvent(Integer.parseInt(parts[0]), Type.byId(parts[1]), Integer.parseInt(parts[2]),
+                    Integer.parseInt(parts[3]), Integer.parseInt(parts[4]),
+                    Integer.parseInt(parts[5]), Integer.parseInt(parts[6]), Integer.parseInt(parts[7]));
+        }
+
+        String format() {
+            return tick + " " + type.id + " " + world + " " + actor + " " + victim + " " + x + " " + y + " " + z;
+        }
+    }
+
+    // A simulated player: a Player stub whose position the simulation moves around
+    static final class SimPlayer {
+        final UUID id;
+        final Player player;
+        World world;
+        int x;
+        int y;
+        int z;
+
+        SimPlayer(int number) {
+            this.id = new UUID(1, number);
+            this.player = BukkitStubs.stub(Player.class, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getUniqueId":
+                        return id;
+                    case "getWorld":
+                        return world;
+                    case "getLocation":
+                        return fill(args == null ? new Location(null, 0, 0, 0) : (Location) args[0], world, x, y, z);
+                    case "getName":
+                        return "player" + number;
+                    default:
+                        return BukkitStubs.objectMethod(proxy, method.getName(), args);
+                }
+            });
+        }
+    }
+
+    // An event built for dispatch, and what "blocked" means for it
+    private static final class Prepared {
+        final Type type;
+        final Event event;
+        final int blocks;
+
+        Prepared(Type type, Event event, int blocks) {
+            this.type = type;
+            this.event = event;
+            this.blocks = blocks;
+        }
+    }
+
+    // Per event type results, measured after warm-up
+    private static final class TypeStats {
+        final PerfMetrics.Probe probe;
+        long maxNanos;
+        long blocked;
+
+        TypeStats(PerfMetrics.Probe probe) {
+            this.probe = probe;
+        }
+    }
+
+    private final ClaimManager claimManager;
+    private final ClaimListener listener;
+    private final List<World> worlds = new ArrayList<>();
+    private final List<SimPlayer> players = new ArrayList<>();
+    private final List<ClaimManager.Claim> claims;
+    private final Random random;
+    private final double rateMultiplier;
+    private final PerfMetrics results = new PerfMetrics(true);
+    private final Map<Type, TypeStats> stats = new HashMap<>();
+    private final ItemStack stick = new ItemStack(Material.STICK);
+
+    private long measuredEvents;
+    private long handlerNanos;
+    private long worstTickNanos;
+    private long handlerBytes;
+    private int measuredTicks;
+
+    LoadSimulation(int playerCount, int claimCount, int worldCount, double rateMultiplier, long seed) {
+        this.claimManager = new ClaimManager(new PerfMetrics(true));
+        this.claims = ClaimFixtures.claims(claimManager, claimCount, worldCount, seed);
+        claimManager.restoreClaims(claims);
+        // No item meta without a server, so the material check stands in for Main.isClaimTool
+        this.listener = new ClaimListener(claimManager, new PerfMetrics(true),
+                item -> item != null && item.getType() == Material.GOLDEN_SHOVEL);
+        this.random = new Random(seed);
+        this.rateMultiplier = rateMultiplier;
+        for (int i = 0; i < worldCount; i++) {
+            worlds.add(BukkitStubs.world(ClaimFixtures.worldName(i)));
+        }
+        addPlayers(playerCount);
+        for (Type type : Type.values()) {
+            stats.put(type, new TypeStats(results.probe(type.id)));
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = parseOptions(args);
+        int playerCount = Integer.parseInt(options.getOrDefault("players", "200"));
+        int claimCount = Integer.parseInt(options.getOrDefault("claims", "50000"));
+        int worldCount = Integer.parseInt(options.getOrDefault("worlds", "1"));
+        int ticks = Integer.parseInt(options.getOrDefault("ticks", "6000"));
+        int warmupTicks = Integer.parseInt(options.getOrDefault("warmup-ticks", "1200"));
+        double rate = Double.parseDouble(options.getOrDefault("rate", "1.0"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "42"));
+
+        LoadSimulation simulation = new LoadSimulation(playerCount, claimCount, worldCount, rate, seed);
+        System.out.println("SafeClaim load simulation: " + playerCount + " players, " + claimCount + " claims in " +
+                worldCount + " world(s), " + ticks + " ticks after " + warmupTicks + " warm-up ticks");
+
+        if (options.containsKey("trace")) {
+            simulation.replay(options.get("trace"), warmupTicks);
+        } else if (options.containsKey("record")) {
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(options.get("record")), StandardCharsets.UTF_8))) {
+                simulation.runSynthetic(warmupTicks + ticks, warmupTicks, writer);
+            }
+        } else {
+            simulation.runSynthetic(warmupTicks + ticks, warmupTicks, null);
+        }
+        simulation.report();
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Expected --option value pairs, got " + args[i]);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+
+    // Half the players start inside a random claim, the rest anywhere on the claim grid
+    private void addPlayers(int count) {
+        int side = ClaimFixtures.gridSide(claims.size(), worlds.size()) * ClaimFixtures.CELL;
+        for (int i = players.size(); i < count; i++) {
+            SimPlayer player = new SimPlayer(i);
+            if (!claims.isEmpty() && random.nextDouble() < INSIDE_FRACTION) {
+                ClaimManager.Claim claim = claims.get(random.nextInt(claims.size()));
+                player.world = worlds.get(worldIndex(claim.getWorldName()));
+                player.x = (claim.getMinX() + claim.getMaxX()) / 2;
+                player.z = (claim.getMinZ() + claim.getMaxZ()) / 2;
+            } else {
+                player.world = worlds.get(random.nextInt(worlds.size()));
+                player.x = random.nextInt(side) - side / 2;
+                player.z = random.nextInt(side) - side / 2;
+            }
+            player.y = 64;
+            players.add(player);
+            track(player);
+        }
+    }
+
+    private int worldIndex(String worldName) {
+        for (int i = 0; i < worlds.size(); i++) {
+            if (worlds.get(i).getName().equals(worldName)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown world " + worldName);
+    }
+
+    // What PlayerClaimTracker does when a player crosses a block boundary
+    private void track(SimPlayer player) {
+        claimManager.updatePlayerPosition(player.id, player.world.getName(), player.x, player.y, player.z);
+    }
+
+    private void runSynthetic(int ticks, int warmupTicks, Writer recorder) throws IOException {
+        List<TraceEvent> tickEvents = new ArrayList<>();
+        for (int tick = 0; tick < ticks; tick++) {
+            tickEvents.clear();
+            for (int i = 0; i < players.size(); i++) {
+                SimPlayer player = players.get(i);
+                // Random walk of at most one block per tick
+                player.x += random.nextInt(3) - 1;
+                player.z += random.nextInt(3) - 1;
+                track(player);
+                generate(tick, i, player, tickEvents);
+            }
+            if (random.nextDouble() < Type.EXPLOSION.rate * rateMultiplier && !players.isEmpty()) {
+                SimPlayer near = players.get(random.nextInt(players.size()));
+                tickEvents.add(new TraceEvent(tick, Type.EXPLOSION, worldIndex(near.world.getName()), -1, -1,
+                        near.x + random.nextInt(17) - 8, near.y, near.z + random.nextInt(17) - 8));
+            }
+            if (recorder != null) {
+                for (TraceEvent event : tickEvents) {
+                    recorder.write(event.format());
+                    recorder.write('\n');
+                }
+            }
+            runTick(tickEvents, tick >= warmupTicks);
+        }
+    }
+
+    private void generate(int tick, int actor, SimPlayer player, List<TraceEvent> out) {
+        int world = worldIndex(player.world.getName());
+        for (Type type : Type.values()) {
+            if (type == Type.EXPLOSION || random.nextDouble() >= type.rate * rateMultiplier) {
+                continue;
+            }
+            switch (type) {
+                case PVP:
+                    int victim = random.nextInt(players.size());
+                    SimPlayer target = players.get(victim);
+                    out.add(new TraceEvent(tick, type, worldIndex(target.world.getName()), actor, victim, target.x, target.y, target.z));
+                    break;
+                case MOB_HITS_PLAYER:
+                case ENVIRONMENT:
+                    out.add(new TraceEvent(tick, type, world, -1, actor, player.x, player.y, player.z));
+                    break;
+                default:
+                    // Blocks and mobs within reach of the player
+                    out.add(new TraceEvent(tick, type, world, actor, -1,
+                            player.x + random.nextInt(9) - 4, player.y + random.nextInt(5) - 2, player.z + random.nextInt(9) - 4));
+                    break;
+            }
+        }
+    }
+
+    private void replay(String file, int warmupTicks) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            List<TraceEvent> tickEvents = new ArrayList<>();
+            int currentTick = Integer.MIN_VALUE;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                TraceEvent event = TraceEvent.parse(line);
+                if (event.tick != currentTick && !tickEvents.isEmpty()) {
+                    runTick(tickEvents, currentTick >= warmupTicks);
+                    tickEvents.clear();
+                }
+                currentTick = event.tick;
+                // Traces may involve more players than were created up front
+                addPlayers(Math.max(event.actor, event.victim) + 1);
+                tickEvents.add(event);
+            }
+            if (!tickEvents.isEmpty()) {
+                runTick(tickEvents, currentTick >= warmupTicks);
+            }
+        }
+    }
+
+    private void runTick(List<TraceEvent> tickEvents, boolean measured) {
+        List<Prepared> prepared = new ArrayList<>(tickEvents.size());
+        for (TraceEvent event : tickEvents) {
+            prepared.add(prepare(event));
+        }
+
+        long tickNanos = 0;
+        long bytesBefore = allocatedBytes();
+        for (Prepared event : prepared) {
+            long start = System.nanoTime();
+            dispatch(event);
+            long elapsed = System.nanoTime() - start;
+            tickNanos += elapsed;
+            if (measured) {
+                TypeStats typeStats = stats.get(event.type);
+                typeStats.probe.stop(start, blocked(event));
+                typeStats.maxNanos = Math.max(typeStats.maxNanos, elapsed);
+                if (blocked(event)) {
+                    typeStats.blocked++;
+                }
+            }
+        }
+        long bytesAfter = allocatedBytes();
+
+        if (measured) {
+            measuredTicks++;
+            measuredEvents += prepared.size();
+            handlerNanos += tickNanos;
+            worstTickNanos = Math.max(worstTickNanos, tickNanos);
+            if (bytesBefore >= 0 && bytesAfter >= 0) {
+                handlerBytes += bytesAfter - bytesBefore;
+            }
+        }
+    }
+
+    // Build the Bukkit event for a trace entry; victims are moved to where the trace saw them
+    private Prepared prepare(TraceEvent event) {
+        World world = worlds.get(event.world);
+        SimPlayer actor = event.actor >= 0 ? players.get(event.actor) : null;
+        SimPlayer victim = event.victim >= 0 ? players.get(event.victim) : null;
+        if (victim != null && (victim.world != world || victim.x != event.x || victim.y != event.y || victim.z != event.z)) {
+            victim.world = world;
+            victim.x = event.x;
+            victim.y = event.y;
+            victim.z = event.z;
+            track(victim);
+        }
+
+        Block block = BukkitStubs.block(world, event.x, event.y, event.z);
+        switch (event.type) {
+            case INTERACT:
+                // Mostly empty hands; a tenth hold an item that is not the claim tool
+                return new Prepared(event.type, new PlayerInteractEvent(actor.player, Action.RIGHT_CLICK_BLOCK,
+                        random.nextInt(10) == 0 ? stick : null, block, BlockFace.UP), 0);
+            case BLOCK_DAMAGE:
+                return new Prepared(event.type, new BlockDamageEvent(actor.player, block, null, false), 0);
+            case BLOCK_BREAK:
+                return new Prepared(event.type, new BlockBreakEvent(block, actor.player), 0);
+            case PVP:
+                return new Prepared(event.type, new EntityDamageByEntityEvent(actor.player, victim.player,
+                        EntityDamageEvent.DamageCause.ENTITY_ATTACK, 4), 0);
+            case PLAYER_HITS_MOB:
+                return new Prepared(event.type, new EntityDamageByEntityEvent(actor.player, mob(world, event.x, event.y, event.z),
+                        EntityDamageEvent.DamageCause.ENTITY_ATTACK, 4), 0);
+            case MOB_HITS_PLAYER:
+                return new Prepared(event.type, new EntityDamageByEntityEvent(mob(world, event.x + 1, event.y, event.z), victim.player,
+                        EntityDamageEvent.DamageCause.ENTITY_ATTACK, 3), 0);
+            case ENVIRONMENT:
+                return new Prepared(event.type, new EntityDamageEvent(victim.player, EntityDamageEvent.DamageCause.FALL, 2), 0);
+            case EXPLOSION:
+                List<Block> blocks = new ArrayList<>();
+                for (int dx = -EXPLOSION_RADIUS; dx <= EXPLOSION_RADIUS; dx++) {
+                    for (int dy = -EXPLOSION_RADIUS; dy <= EXPLOSION_RADIUS; dy++) {
+                        for (int dz = -EXPLOSION_RADIUS; dz <= EXPLOSION_RADIUS; dz++) {
+                            blocks.add(BukkitStubs.block(world, event.x + dx, event.y + dy, event.z + dz));
+                        }
+                    }
+                }
+                return new Prepared(event.type, new EntityExplodeEvent(mob(world, event.x, event.y, event.z),
+                        new Location(world, event.x, event.y, event.z), blocks, 1), blocks.size());
+            default:
+                throw new IllegalStateException("Unhandled event type " + event.type);
+        }
+    }
+
+    private void dispatch(Prepared prepared) {
+        switch (prepared.type) {
+            case INTERACT:
+                listener.onPlayerInteract((PlayerInteractEvent) prepared.event);
+                break;
+            case BLOCK_DAMAGE:
+                listener.onBlockDamage((BlockDamageEvent) prepared.event);
+                break;
+            case BLOCK_BREAK:
+                listener.onBlockBreak((BlockBreakEvent) prepared.event);
+                break;
+            case PVP:
+            case PLAYER_HITS_MOB:
+            case MOB_HITS_PLAYER:
+                // The server calls both handlers for a hit: EntityDamageByEntityEvent is an EntityDamageEvent
+                EntityDamageByEntityEvent hit = (EntityDamageByEntityEvent) prepared.event;
+                listener.onEntityDamage(hit);
+                if (!hit.isCancelled()) {
+                    listener.onEntityDamage((EntityDamageEvent) hit);
+                }
+                break;
+            case ENVIRONMENT:
+                listener.onEntityDamage((EntityDamageEvent) prepared.event);
+                break;
+            case EXPLOSION:
+                listener.onEntityExplode((EntityExplodeEvent) prepared.event);
+                break;
+            default:
+                throw new IllegalStateException("Unhandled event type " + prepared.type);
+        }
+    }
+
+    // Cancelled, or for explosions: some blocks were spared
+    private static boolean blocked(Prepared prepared) {
+        if (prepared.event instanceof EntityExplodeEvent) {
+            return ((EntityExplodeEvent) prepared.event).blockList().size() != prepared.blocks;
+        }
+        return ((Cancellable) prepared.event).isCancelled();
+    }
+
+    private static Entity mob(World world, int x, int y, int z) {
+        return BukkitStubs.stub(Entity.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getWorld":
+                    return world;
+                case "getLocation":
+                    return fill(args == null ? new Location(null, 0, 0, 0) : (Location) args[0], world, x, y, z);
+                default:
+                    return BukkitStubs.objectMethod(proxy, method.getName(), args);
+            }
+        });
+    }
+
+    private static Location fill(Location location, World world, int x, int y, int z) {
+        location.setWorld(world);
+        location.setX(x + 0.5);
+        location.setY(y);
+        location.setZ(z + 0.5);
+        return location;
+    }
+
+    // Bytes allocated by this thread so far, or -1 if the JVM cannot tell
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private void report() {
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "%-16s %10s %9s %9s %11s %9s", "event", "count", "p50 ns", "p99 ns", "max ns", "blocked"));
+        for (Type type : Type.values()) {
+            TypeStats typeStats = stats.get(type);
+            long count = typeStats.probe.getCalls();
+            if (count == 0) {
+                continue;
+            }
+            System.out.println(String.format(Locale.ROOT, "%-16s %10d %9d %9d %11d %8.1f%%", type.id, count,
+                    typeStats.probe.getPercentile(50), typeStats.probe.getPercentile(99), typeStats.maxNanos,
+                    typeStats.blocked * 100.0 / count));
+        }
+
+        System.out.println();
+        double seconds = Math.max(1e-9, handlerNanos / 1e9);
+        System.out.println(String.format(Locale.ROOT, "throughput: %d events in %.1f ms of handler time = %.0f events/s",
+                measuredEvents, handlerNanos / 1e6, measuredEvents / seconds));
+        if (measuredTicks > 0) {
+            System.out.println(String.format(Locale.ROOT, "main thread: %.3f ms per tick on average, %.3f ms worst (%.2f%% of the 50 ms budget)",
+                    handlerNanos / 1e6 / measuredTicks, worstTickNanos / 1e6, worstTickNanos * 100.0 / TICK_BUDGET_NANOS));
+        }
+        if (allocatedBytes() >= 0 && measuredEvents > 0) {
+            System.out.println(String.format(Locale.ROOT, "allocation: %.1f bytes per event, %.1f MB/s of handler time",
+                    (double) handlerBytes / measuredEvents, handlerBytes / seconds / (1024 * 1024)));
+        } else {
+            System.out.println("allocation: not measurable on this JVM");
+        }
+    }
+}
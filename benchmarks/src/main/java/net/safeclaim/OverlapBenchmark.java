@@ -0,0 +1,55 @@
+package net.safeclaim;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// Inserting a claim through createClaim (overlap check + index update), then deleting it again so
+// the claim set stays the same size. Half of the attempts overlap an existing claim.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OverlapBenchmark {
+    private static final UUID PLAYER = new UUID(1, 1);
+
+    @Param({"10", "1000", "10000", "100000"})
+    public int claimCount;
+
+    private ClaimManager claimManager;
+    private Random random;
+    private int extent;
+
+    @Setup
+    public void setup() {
+        claimManager = ClaimFixtures.populatedManager(claimCount, 4, 42);
+        random = new Random(7);
+        extent = ClaimFixtures.gridSide(claimCount, 4) * ClaimFixtures.CELL;
+    }
+
+    @Benchmark
+    public boolean createAndDelete() {
+        int x = random.nextInt(extent) - extent / 2;
+        int z = random.nextInt(extent) - extent / 2;
+        ClaimManager.CreateResult result = claimManager.createClaim(PLAYER, "bench", ClaimFixtures.worldName(0),
+                x, z, x + 16, z + 16);
+        if (result.isSuccess()) {
+            claimManager.deleteClaim(PLAYER, "bench");
+        }
+        return result.isSuccess();
+    }
+}
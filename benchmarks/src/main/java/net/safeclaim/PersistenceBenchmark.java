@@ -0,0 +1,71 @@
+package net.safeclaim;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Saving and loading full snapshots in both formats. Loading includes building the index.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PersistenceBenchmark {
+
+    @Param({"1000", "10000", "50000", "100000"})
+    public int claimCount;
+
+    @Param({"yaml", "binary"})
+    public String format;
+
+    private SnapshotFormat snapshotFormat;
+    private List<ClaimManager.Claim> claims;
+    private File directory;
+    private File file;
+
+    @Setup
+    public void setup() throws IOException {
+        snapshotFormat = format.equals("binary") ? new BinarySnapshotFormat() : new YamlSnapshotFormat();
+        claims = ClaimFixtures.claims(new ClaimManager(), claimCount, 4, 42);
+        directory = Files.createTempDirectory("safeclaim-bench").toFile();
+        file = new File(directory, snapshotFormat.getFileName());
+        snapshotFormat.write(file, claims);
+    }
+
+    @TearDown
+    public void tearDown() {
+        new File(directory, snapshotFormat.getFileName() + ".out").delete();
+        file.delete();
+        directory.delete();
+    }
+
+    @Benchmark
+    public File save() throws IOException {
+        File out = new File(directory, snapshotFormat.getFileName() + ".out");
+        snapshotFormat.write(out, claims);
+        return out;
+    }
+
+    @Benchmark
+    public ClaimManager load() throws IOException {
+        ClaimManager claimManager = new ClaimManager();
+        claimManager.restoreClaims(snapshotFormat.read(file, claimManager));
+        return claimManager;
+    }
+}
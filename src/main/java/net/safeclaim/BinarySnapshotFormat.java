@@ -0,0 +1,167 @@
+package net.safeclaim;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+// Compact claims.dat layout, big-endian:
+//   int magic, int version
+//   int string count, then each string as unsigned short length + UTF-8 bytes
+//   int claim count, then one fixed-size record per claim:
+//     long owner msb, long owner lsb, int world string, int name string, int parent name string (-1 for a
+//     top-level claim), int minX, int minZ, int maxX, int maxZ, int flags, int first trusted entry,
+//     int trusted count
+//   int trusted entry count, then long msb + long lsb per entry
+// World and claim names are stored once in the string table and referenced by index, and trusted
+// players live in a table of their own after the records, so record i can be found by seeking to
+// records start + i * RECORD_SIZE. The vertical extent is not stored; it comes from the height
+// limits, like the YAML format.
+// Files of other versions are rejected.
+class BinarySnapshotFormat implements SnapshotFormat {
+    private static final int MAGIC = 0x53434C4D; // "SCLM"
+    private static final int VERSION = 3;
+    private static final int RECORD_SIZE = 56;
+    private static final int TRUSTED_ENTRY_SIZE = 16;
+
+    @Override
+    public String getFileName() {
+        return "claims.dat";
+    }
+
+    @Override
+    public List<ClaimManager.Claim> read(File file, ClaimManager claimManager) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException(file.getName() + " is not a SafeClaim claim file");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported " + file.getName() + " version " + version);
+            }
+
+            String[] strings = new String[buffer.getInt()];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+                buffer.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            int count = buffer.getInt();
+            if (count < 0 || buffer.remaining() < (long) count * RECORD_SIZE + 4) {
+                throw new IOException(file.getName() + " is truncated");
+            }
+            // The trusted table follows the records
+            int trustedStart = buffer.position() + count * RECORD_SIZE + 4;
+            int trustedEntries = buffer.getInt(trustedStart - 4);
+            if (trustedEntries < 0 || buffer.limit() - trustedStart < (long) trustedEntries * TRUSTED_ENTRY_SIZE) {
+                throw new IOException(file.getName() + " is truncated");
+            }
+            List<ClaimManager.Claim> loaded = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                UUID owner = new UUID(buffer.getLong(), buffer.getLong());
+                String world = strings[buffer.getInt()];
+                String name = strings[buffer.getInt()];
+                int parent = buffer.getInt();
+                ClaimManager.Claim claim = claimManager.buildClaim(owner, name, world, buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt());
+                if (parent >= 0) {
+                    claim.setParentName(strings[parent]);
+                }
+                claim.setFlags(buffer.getInt());
+                int first = buffer.getInt();
+                int trustedCount = buffer.getInt();
+                if (first < 0 || trustedCount < 0 || (long) first + trustedCount > trustedEntries) {
+                    throw new IOException(file.getName() + " is corrupt");
+                }
+                List<UUID> trusted = new ArrayList<>(trustedCount);
+                for (int t = first; t < first + trustedCount; t++) {
+                    int offset = trustedStart + t * TRUSTED_ENTRY_SIZE;
+                    trusted.add(new UUID(buffer.getLong(offset), buffer.getLong(offset + 8)));
+                }
+                claim.setTrusted(trusted);
+                loaded.add(claim);
+            }
+            return loaded;
+        } catch (BufferUnderflowException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException(file.getName() + " is corrupt", e);
+        }
+    }
+
+    @Override
+    public void write(File file, Collection<ClaimManager.Claim> claims) throws IOException {
+        // The records and the trusted table are written in two passes that must agree
+        List<ClaimManager.Claim> ordered = new ArrayList<>(claims);
+        Map<String, Integer> stringIds = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        // Read each parent name and trust set once; they may change on the main thread while we write
+        Map<ClaimManager.Claim, String> parentNames = new HashMap<>();
+        List<Set<UUID>> trustedSets = new ArrayList<>(ordered.size());
+        for (ClaimManager.Claim claim : ordered) {
+            intern(claim.getWorldName(), stringIds, strings);
+            intern(claim.getName(), stringIds, strings);
+            String parentName = claim.getParentName();
+            if (parentName != null) {
+                parentNames.put(claim, parentName);
+                intern(parentName, stringIds, strings);
+            }
+            trustedSets.add(claim.getTrusted());
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(strings.size());
+            for (String string : strings) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(bytes.length);
+                out.write(bytes);
+            }
+            out.writeInt(ordered.size());
+            int trustedEntries = 0;
+            for (int i = 0; i < ordered.size(); i++) {
+                ClaimManager.Claim claim = ordered.get(i);
+                out.writeLong(claim.getOwner().getMostSignificantBits());
+                out.writeLong(claim.getOwner().getLeastSignificantBits());
+                out.writeInt(stringIds.get(claim.getWorldName()));
+                out.writeInt(stringIds.get(claim.getName()));
+                String parentName = parentNames.get(claim);
+                out.writeInt(parentName != null ? stringIds.get(parentName) : -1);
+                out.writeInt(claim.getMinX());
+                out.writeInt(claim.getMinZ());
+                out.writeInt(claim.getMaxX());
+                out.writeInt(claim.getMaxZ());
+                out.writeInt(claim.getFlags());
+                out.writeInt(trustedEntries);
+                out.writeInt(trustedSets.get(i).size());
+                trustedEntries += trustedSets.get(i).size();
+            }
+            out.writeInt(trustedEntries);
+            for (Set<UUID> trustedPlayers : trustedSets) {
+                for (UUID trusted : trustedPlayers) {
+                    out.writeLong(trusted.getMostSignificantBits());
+                    out.writeLong(trusted.getLeastSignificantBits());
+                }
+            }
+        }
+    }
+
+    private static void intern(String string, Map<String, Integer> ids, List<String> strings) {
+        if (!ids.containsKey(string)) {
+            ids.put(string, strings.size());
+            strings.add(string);
+        }
+    }
+}
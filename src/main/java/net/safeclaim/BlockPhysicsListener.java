@@ -0,0 +1,233 @@
+package net.safeclaim;
+
+import org.bukkit.Location;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.BlockState;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBurnEvent;
+import org.bukkit.event.block.BlockFromToEvent;
+import org.bukkit.event.block.BlockIgniteEvent;
+import org.bukkit.event.block.BlockPistonEvent;
+import org.bukkit.event.block.BlockPistonExtendEvent;
+import org.bukkit.event.block.BlockPistonRetractEvent;
+import org.bukkit.event.block.BlockSpreadEvent;
+import org.bukkit.event.world.StructureGrowEvent;
+
+import java.util.List;
+
+// Stops world physics from carrying anything into a claim from outside it: flowing water and
+// lava, pistons pushing or pulling blocks across a claim edge, fire spreading or burning in,
+// and trees or mushrooms growing into a claim. Changes that stay within one claim, or stay
+// outside of all claims, are left alone.
+// These events fire far more often than the ones in ClaimListener, so every check goes through
+// ClaimManager.entersForeignClaim, which settles most of them from chunk columns alone.
+public class BlockPhysicsListener implements Listener {
+
+    private final ClaimManager claimManager;
+
+    private final PerfMetrics.Probe flowProbe;
+    private final PerfMetrics.Probe pistonProbe;
+    private final PerfMetrics.Probe spreadProbe;
+    private final PerfMetrics.Probe igniteProbe;
+    private final PerfMetrics.Probe burnProbe;
+    private final PerfMetrics.Probe growProbe;
+
+    public BlockPhysicsListener(ClaimManager claimManager, PerfMetrics metrics) {
+        this.claimManager = claimManager;
+        this.flowProbe = metrics.probe("listener.fluid-flow", "world has claims", "enters claim");
+        this.pistonProbe = metrics.probe("listener.piston", "world has claims", "crosses claim");
+        this.spreadProbe = metrics.probe("listener.block-spread", "world has claims", "enters claim");
+        this.igniteProbe = metrics.probe("listener.ignite", "world has claims", "enters claim");
+        this.burnProbe = metrics.probe("listener.burn", "world has claims", "enters claim");
+        this.growProbe = metrics.probe("listener.structure-grow", "world has claims", "enters claim");
+    }
+
+    @EventHandler(priority = EventPriority.LOW, ignoreCancelled = true)
+    public void onBlockFromTo(BlockFromToEvent event) {
+        long start = flowProbe.start();
+        flowProbe.stop(start, protectFromFlow(event));
+    }
+
+    private boolean protectFromFlow(BlockFromToEvent event) {
+        Block from = event.getBlock();
+        if (!claimManager.hasClaims(from.getWorld())) {
+            return false;
+        }
+        flowProbe.pass(0);
+
+        // Water, lava (and dragon eggs teleporting) moving into a claim from outside it
+        if (!entersForeignClaim(from, event.getToBlock())) {
+            return false;
+        }
+        flowProbe.pass(1);
+        event.setCancelled(true);
+        return true;
+    }
+
+    @EventHandler(priority = EventPriority.LOW, ignoreCancelled = true)
+    public void onPistonExtend(BlockPistonExtendEvent event) {
+        long start = pistonProbe.start();
+        pistonProbe.stop(start, protectFromPiston(event, event.getBlocks(), true));
+    }
+
+    @EventHandler(priority = EventPriority.LOW, ignoreCancelled = true)
+    public void onPistonRetract(BlockPistonRetractEvent event) {
+        long start = pistonProbe.start();
+        pistonProbe.stop(start, protectFromPiston(event, event.getBlocks(), false));
+    }
+
+    private boolean protectFromPiston(BlockPistonEvent event, List<Block> moved, boolean extending) {
+        Block piston = event.getBlock();
+        if (!claimManager.hasClaims(piston.getWorld())) {
+            return false;
+        }
+        pistonProbe.pass(0);
+
+        if (!crossesClaim(piston, event.getDirection(), moved, extending)) {
+            return false;
+        }
+        pistonProbe.pass(1);
+        event.setCancelled(true);
+        return true;
+    }
+
+    // A piston may not move blocks out of a claim it is not in, and an extending piston may not
+    // push blocks (or its head) into one
+    private boolean crossesClaim(Block piston, BlockFace direction, List<Block> moved, boolean extending) {
+        String worldName = piston.getWorld().getName();
+        int dx = direction.getModX();
+        int dy = direction.getModY();
+        int dz = direction.getModZ();
+        if (extending && claimManager.entersForeignClaim(worldName, piston.getX(), piston.getY(), piston.getZ(),
+                piston.getX() + dx, piston.getY() + dy, piston.getZ() + dz)) {
+            return true;
+        }
+        for (Block block : moved) {
+            if (claimManager.entersForeignClaim(worldName, piston.getX(), piston.getY(), piston.getZ(),
+                    block.getX(), block.getY(), block.getZ())) {
+                return true;
+            }
+            if (extending && claimManager.entersForeignClaim(worldName, piston.getX(), piston.getY(), piston.getZ(),
+                    block.getX() + dx, block.getY() + dy, block.getZ() + dz)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @EventHandler(priority = EventPriority.LOW, ignoreCancelled = true)
+    public void onBlockSpread(BlockSpreadEvent event) {
+        long start = spreadProbe.start();
+        spreadProbe.stop(start, protectFromSpread(event));
+    }
+
+    private boolean protectFromSpread(BlockSpreadEvent event) {
+        Block block = event.getBlock();
+        if (!claimManager.hasClaims(block.getWorld())) {
+            return false;
+        }
+        spreadProbe.pass(0);
+
+        // Fire, vines, mushrooms, grass and the like spreading in from outside
+        if (!entersForeignClaim(event.getSource(), block)) {
+            return false;
+        }
+        spreadProbe.pass(1);
+        event.setCancelled(true);
+        return true;
+    }
+
+    @EventHandler(priority = EventPriority.LOW, ignoreCancelled = true)
+    public void onBlockIgnite(BlockIgniteEvent event) {
+        long start = igniteProbe.start();
+        igniteProbe.stop(start, protectFromIgnite(event));
+    }
+
+    private boolean protectFromIgnite(BlockIgniteEvent event) {
+        Block block = event.getBlock();
+        if (!claimManager.hasClaims(block.getWorld())) {
+            return false;
+        }
+        igniteProbe.pass(0);
+
+        // Lava and fire only matter when they reach in from outside. Fire without a source block
+        // is treated like breaking a block in the claim: players (flint and steel, fire charges,
+        // lighting a portal) need build permission there, lightning and fireballs are never allowed.
+        Block source = event.getIgnitingBlock();
+        boolean protect;
+        if (source != null) {
+            protect = entersForeignClaim(source, block);
+        } else {
+            ClaimManager.Claim claim = claimManager.getClaimAt(block);
+            Player player = event.getPlayer();
+            protect = claim != null && (player == null || !claim.permits(player.getUniqueId(), ClaimManager.Claim.BUILD));
+        }
+        if (!protect) {
+            return false;
+        }
+        igniteProbe.pass(1);
+        event.setCancelled(true);
+        return true;
+    }
+
+    @EventHandler(priority = EventPriority.LOW, ignoreCancelled = true)
+    public void onBlockBurn(BlockBurnEvent event) {
+        long start = burnProbe.start();
+        burnProbe.stop(start, protectFromBurn(event));
+    }
+
+    private boolean protectFromBurn(BlockBurnEvent event) {
+        Block block = event.getBlock();
+        if (!claimManager.hasClaims(block.getWorld())) {
+            return false;
+        }
+        burnProbe.pass(0);
+
+        // Burning has no player behind it, so a fire without a known source never burns claimed blocks
+        Block source = event.getIgnitingBlock();
+        boolean protect = source != null ? entersForeignClaim(source, block) : claimManager.isInClaim(block);
+        if (!protect) {
+            return false;
+        }
+        burnProbe.pass(1);
+        event.setCancelled(true);
+        return true;
+    }
+
+    @EventHandler(priority = EventPriority.LOW, ignoreCancelled = true)
+    public void onStructureGrow(StructureGrowEvent event) {
+        long start = growProbe.start();
+        growProbe.stop(start, protectFromGrowth(event));
+    }
+
+    private boolean protectFromGrowth(StructureGrowEvent event) {
+        if (!claimManager.hasClaims(event.getWorld())) {
+            return false;
+        }
+        growProbe.pass(0);
+
+        // Trim the parts of a tree or huge mushroom that would grow into a claim; the rest grows
+        Location origin = event.getLocation();
+        String worldName = event.getWorld().getName();
+        int x = origin.getBlockX();
+        int y = origin.getBlockY();
+        int z = origin.getBlockZ();
+        List<BlockState> blocks = event.getBlocks();
+        boolean trimmed = blocks.removeIf(state ->
+                claimManager.entersForeignClaim(worldName, x, y, z, state.getX(), state.getY(), state.getZ()));
+        if (!trimmed) {
+            return false;
+        }
+        growProbe.pass(1);
+        return true;
+    }
+
+    private boolean entersForeignClaim(Block from, Block to) {
+        return claimManager.entersForeignClaim(from.getWorld().getName(), from.getX(), from.getY(), from.getZ(),
+                to.getX(), to.getY(), to.getZ());
+    }
+}
@@ -0,0 +1,267 @@
+package net.safeclaim;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.command.CommandSender;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Deletes the claims of players who have not been online for a configured number of days.
+// A sweep gathers candidates on a background thread (last-seen times may have to be read from
+// the players' data files), then deletes at most a few claims per tick on the main thread, oldest
+// first, so even a sweep that expires thousands of claims never causes a lag spike. Owners who
+// join while their claims are queued keep them. Every deletion, and every claim a dry run would
+// delete, is appended to expiry.log.
+public class ClaimExpiry implements Runnable, Listener {
+    private static final int REPORT_LINES = 10;
+
+    private final Plugin plugin;
+    private final ClaimManager claimManager;
+    private final long inactiveMillis;
+    private final int deletionsPerTick;
+    private final File logFile;
+    private final Logger logger;
+    // Gathers candidates and writes the audit log, in order
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "SafeClaim-Expiry");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final PerfMetrics.Probe sweepProbe;
+    private final PerfMetrics.Probe deleteProbe;
+
+    // Main thread only
+    private final Queue<Candidate> queue = new ArrayDeque<>();
+    private final Set<UUID> joinedDuringSweep = new HashSet<>();
+    private boolean sweeping;
+    private BukkitTask task;
+
+    public ClaimExpiry(Plugin plugin, ClaimManager claimManager, int inactiveDays, int deletionsPerTick, File logFile,
+                       Logger logger, PerfMetrics metrics) {
+        this.plugin = plugin;
+        this.claimManager = claimManager;
+        this.inactiveMillis = TimeUnit.DAYS.toMillis(inactiveDays);
+        this.deletionsPerTick = Math.max(1, deletionsPerTick);
+        this.logFile = logFile;
+        this.logger = logger;
+        this.sweepProbe = metrics.probe("expiry.sweep");
+        this.deleteProbe = metrics.probe("expiry.delete");
+    }
+
+    public long getInactiveDays() {
+        return TimeUnit.MILLISECONDS.toDays(inactiveMillis);
+    }
+
+    // Start a sweep unless one is still running (main thread). A dry run only reports what would
+    // be deleted, to the sender if there is one and to the audit log; returns false if busy.
+    public boolean sweep(CommandSender sender, boolean dryRun) {
+        if (sweeping) {
+            return false;
+        }
+        sweeping = true;
+        joinedDuringSweep.clear();
+        long cutoff = System.currentTimeMillis() - inactiveMillis;
+        executor.execute(() -> {
+            long start = sweepProbe.start();
+            List<Candidate> candidates;
+            try {
+                candidates = findCandidates(cutoff);
+            } catch (RuntimeException e) {
+                // e.g. a corrupt player data file; let the next sweep try again
+                sweepProbe.stop(start, false);
+                logger.log(Level.WARNING, "Claim expiry sweep failed", e);
+                if (!executor.isShutdown()) {
+                    Bukkit.getScheduler().runTask(plugin, () -> {
+                        sweeping = false;
+                        if (sender != null) {
+                            sender.sendMessage(ChatColor.RED + "The expiry sweep failed; see the server log.");
+                        }
+                    });
+                }
+                return;
+            }
+            sweepProbe.stop(start, !candidates.isEmpty());
+            if (dryRun) {
+                audit("DRY-RUN", candidates);
+            }
+            if (executor.isShutdown()) {
+                // The plugin is being disabled
+                return;
+            }
+            Bukkit.getScheduler().runTask(plugin, () -> {
+                if (dryRun) {
+                    sweeping = false;
+                    report(sender, candidates);
+                    return;
+                }
+                if (sender != null) {
+                    sender.sendMessage(ChatColor.GREEN + "Expiring " + candidates.size() + " claims of players inactive for " +
+                            getInactiveDays() + "+ days.");
+                }
+                queue.addAll(candidates);
+                if (queue.isEmpty()) {
+                    sweeping = false;
+                } else if (task == null) {
+                    task = Bukkit.getScheduler().runTaskTimer(plugin, this, 1, 1);
+                }
+            });
+        });
+        return true;
+    }
+
+    // Delete the next few queued claims (main thread, every tick while a sweep is running)
+    @Override
+    public void run() {
+        long start = deleteProbe.start();
+        List<Candidate> deleted = new ArrayList<>();
+        Candidate candidate;
+        while (deleted.size() < deletionsPerTick && (candidate = queue.poll()) != null) {
+            // The owner came back since the candidates were gathered
+            if (joinedDuringSweep.contains(candidate.owner) || Bukkit.getPlayer(candidate.owner) != null) {
+                continue;
+            }
+            if (claimManager.deleteClaim(candidate.owner, candidate.name)) {
+                deleted.add(candidate);
+            }
+        }
+        deleteProbe.stop(start, !deleted.isEmpty());
+        if (!deleted.isEmpty()) {
+            executor.execute(() -> audit("DELETED", deleted));
+        }
+
+        if (queue.isEmpty()) {
+            sweeping = false;
+            task.cancel();
+            task = null;
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        if (sweeping) {
+            joinedDuringSweep.add(event.getPlayer().getUniqueId());
+        }
+    }
+
+    // Stop deleting and finish writing the audit log (called from onDisable)
+    public void close() {
+        queue.clear();
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                logger.warning("Timed out while finishing the claim expiry sweep.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Every claim of an offline owner last seen before the cutoff, longest inactive first.
+    // Owners never seen on this server have no last-seen time and are left alone. Last-seen times
+    // are local to this server, which is why Main does not run expiry on a shared database.
+    private List<Candidate> findCandidates(long cutoff) {
+        List<Candidate> candidates = new ArrayList<>();
+        for (Map.Entry<UUID, Map<String, ClaimManager.Claim>> entry : claimManager.getClaims().entrySet()) {
+            OfflinePlayer owner = Bukkit.getOfflinePlayer(entry.getKey());
+            long lastPlayed = owner.getLastPlayed();
+            if (owner.isOnline() || lastPlayed == 0 || lastPlayed >= cutoff) {
+                continue;
+            }
+            for (ClaimManager.Claim claim : entry.getValue().values()) {
+                // Subclaims are deleted with their parent
+                if (claim.getParent() == null) {
+                    candidates.add(new Candidate(claim, owner.getName(), lastPlayed));
+                }
+            }
+        }
+        candidates.sort(Comparator.comparingLong((Candidate candidate) -> candidate.lastPlayed).thenComparing(candidate -> candidate.name));
+        return candidates;
+    }
+
+    private void report(CommandSender sender, List<Candidate> candidates) {
+        if (sender == null) {
+            return;
+        }
+        Set<UUID> owners = new HashSet<>();
+        for (Candidate candidate : candidates) {
+            owners.add(candidate.owner);
+        }
+        sender.sendMessage(ChatColor.GOLD + "Dry run: " + candidates.size() + " claims of " + owners.size() +
+                " players inactive for " + getInactiveDays() + "+ days would be deleted (full list in " + logFile.getName() + ").");
+        for (Candidate candidate : candidates.subList(0, Math.min(REPORT_LINES, candidates.size()))) {
+            sender.sendMessage(ChatColor.GREEN + "- " + candidate.name + " (" + candidate.ownerName() + ", last seen " +
+                    Instant.ofEpochMilli(candidate.lastPlayed).toString().substring(0, 10) + ") in " + candidate.worldName);
+        }
+    }
+
+    // Append one line per claim to the audit log (expiry thread)
+    private void audit(String action, List<Candidate> candidates) {
+        if (candidates.isEmpty()) {
+            return;
+        }
+        String now = Instant.now().toString();
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(logFile, true), StandardCharsets.UTF_8))) {
+            for (Candidate candidate : candidates) {
+                writer.write(now + "\t" + action + "\t" + candidate.owner + "\t" + candidate.ownerName() + "\t" + candidate.name + "\t" +
+                        candidate.worldName + "\t" + candidate.area + "\tlast seen " + Instant.ofEpochMilli(candidate.lastPlayed) + "\n");
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to write to " + logFile.getName(), e);
+        }
+    }
+
+    // A claim due for deletion, with what the audit log needs after it is gone
+    private static final class Candidate {
+        final UUID owner;
+        final String ownerName;
+        final String name;
+        final String worldName;
+        final String area;
+        final long lastPlayed;
+
+        Candidate(ClaimManager.Claim claim, String ownerName, long lastPlayed) {
+            this.owner = claim.getOwner();
+            this.ownerName = ownerName;
+            this.name = claim.getName();
+            this.worldName = claim.getWorldName();
+            this.area = "(" + claim.getMinX() + ", " + claim.getMinZ() + ") to (" + claim.getMaxX() + ", " + claim.getMaxZ() + ")";
+            this.lastPlayed = lastPlayed;
+        }
+
+        String ownerName() {
+            return ownerName != null ? ownerName : owner.toString();
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package net.safeclaim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Spatial index over all claims, bucketed per world and per chunk.
+// A claim is registered in every chunk column it touches, so a point lookup only has to
+// test the handful of claims in a single bucket instead of every claim on the server.
+//
+// Buckets are copy-on-write arrays inside concurrent maps: readers on any thread never lock
+// and always see a complete bucket, while writers (serialized by ClaimManager) publish a new
+// array for every chunk they touch. The buckets of one world form a partition that ClaimManager
+// builds and drops as the world loads and unloads.
+//
+// Claims covering more than LARGE_CLAIM_CHUNKS chunks (e.g. a whole spawn region) are kept out of
+// the grid, in a short copy-on-write list per world that is scanned linearly, so registering one
+// costs the same as a small claim. Scans over an area visit at most the chunks that hold claims,
+// so a huge area never means millions of empty chunk lookups either.
+class ClaimIndex {
+    static final int CHUNK_SHIFT = 4;
+    // 64 x 64 chunks, 1024 x 1024 blocks
+    static final long LARGE_CLAIM_CHUNKS = 4096;
+
+    // Chunk column classes, see classify()
+    static final int OUTSIDE = 0;
+    static final int INSIDE = 1;
+    static final int BORDER = 2;
+
+    private static final ClaimManager.Claim[] EMPTY = new ClaimManager.Claim[0];
+
+    private final Map<String, Partition> worlds = new ConcurrentHashMap<>();
+
+    // Register a claim in every chunk it covers (callers must hold the write lock)
+    void add(ClaimManager.Claim claim) {
+        Partition partition = worlds.computeIfAbsent(claim.getWorldName(), k -> new Partition());
+        if (isLarge(claim)) {
+            partition.addLarge(claim);
+            return;
+        }
+        Map<Long, ClaimManager.Claim[]> chunks = partition.chunks;
+        for (int cx = claim.getMinX() >> CHUNK_SHIFT; cx <= claim.getMaxX() >> CHUNK_SHIFT; cx++) {
+            for (int cz = claim.getMinZ() >> CHUNK_SHIFT; cz <= claim.getMaxZ() >> CHUNK_SHIFT; cz++) {
+                Long key = chunkKey(cx, cz);
+                ClaimManager.Claim[] bucket = chunks.getOrDefault(key, EMPTY);
+                ClaimManager.Claim[] grown = Arrays.copyOf(bucket, bucket.length + 1);
+                grown[bucket.length] = claim;
+                chunks.put(key, grown);
+            }
+        }
+    }
+
+    // Register many claims at once (callers must hold the write lock). New entries are grouped
+    // per chunk first, so every touched bucket is copied and published exactly once.
+    void addAll(Collection<ClaimManager.Claim> claims) {
+        Map<String, Map<Long, List<ClaimManager.Claim>>> pending = new HashMap<>();
+        for (ClaimManager.Claim claim : claims) {
+            if (isLarge(claim)) {
+                add(claim);
+                continue;
+            }
+            Map<Long, List<ClaimManager.Claim>> chunks = pending.computeIfAbsent(claim.getWorldName(), k -> new HashMap<>());
+            for (int cx = claim.getMinX() >> CHUNK_SHIFT; cx <= claim.getMaxX() >> CHUNK_SHIFT; cx++) {
+                for (int cz = claim.getMinZ() >> CHUNK_SHIFT; cz <= claim.getMaxZ() >> CHUNK_SHIFT; cz++) {
+                    chunks.computeIfAbsent(chunkKey(cx, cz), k -> new ArrayList<>(1)).add(claim);
+                }
+            }
+        }
+
+        for (Map.Entry<String, Map<Long, List<ClaimManager.Claim>>> world : pending.entrySet()) {
+            Map<Long, ClaimManager.Claim[]> chunks = worlds.computeIfAbsent(world.getKey(), k -> new Partition()).chunks;
+            for (Map.Entry<Long, List<ClaimManager.Claim>> entry : world.getValue().entrySet()) {
+                ClaimManager.Claim[] bucket = chunks.getOrDefault(entry.getKey(), EMPTY);
+                List<ClaimManager.Claim> added = entry.getValue();
+                ClaimManager.Claim[] grown = Arrays.copyOf(bucket, bucket.length + added.size());
+                for (int i = 0; i < added.size(); i++) {
+                    grown[bucket.length + i] = added.get(i);
+                }
+                chunks.put(entry.getKey(), grown);
+            }
+        }
+    }
+
+    // Unregister a claim from every chunk it covers (callers must hold the write lock)
+    void remove(ClaimManager.Claim claim) {
+        Partition partition = worlds.get(claim.getWorldName());
+        if (partition == null) {
+            return;
+        }
+        if (isLarge(claim)) {
+            partition.large = without(partition.large, claim);
+        } else {
+            removeFromChunks(partition.chunks, claim);
+        }
+        if (partition.isEmpty()) {
+            worlds.remove(claim.getWorldName());
+        }
+    }
+
+    private static void removeFromChunks(Map<Long, ClaimManager.Claim[]> chunks, ClaimManager.Claim claim) {
+        for (int cx = claim.getMinX() >> CHUNK_SHIFT; cx <= claim.getMaxX() >> CHUNK_SHIFT; cx++) {
+            for (int cz = claim.getMinZ() >> CHUNK_SHIFT; cz <= claim.getMaxZ() >> CHUNK_SHIFT; cz++) {
+                Long key = chunkKey(cx, cz);
+                ClaimManager.Claim[] bucket = chunks.get(key);
+                if (bucket == null) {
+                    continue;
+                }
+                ClaimManager.Claim[] shrunk = without(bucket, claim);
+                if (shrunk.length == 0) {
+                    chunks.remove(key);
+                } else if (shrunk != bucket) {
+                    chunks.put(key, shrunk);
+                }
+            }
+        }
+    }
+
+    // Drop the whole partition of a world (callers must hold the write lock)
+    void removeWorld(String worldName) {
+        worlds.remove(worldName);
+    }
+
+    // Check if any claim is registered in a world
+    boolean hasWorld(String worldName) {
+        return worlds.containsKey(worldName);
+    }
+
+    // Find the claim containing a block position, or null if it is unclaimed
+    ClaimManager.Claim find(String worldName, int x, int y, int z) {
+        Partition partition = worlds.get(worldName);
+        if (partition == null) {
+            return null;
+        }
+        ClaimManager.Claim claim = find(partition.chunks.get(chunkKey(x >> CHUNK_SHIFT, z >> CHUNK_SHIFT)), x, y, z);
+        return claim != null ? claim : find(partition.large, x, y, z);
+    }
+
+    // Get the claims touching one chunk column, or null if no claim touches it. Large claims
+    // are added to the grid's bucket, in a new array, when they touch the chunk.
+    ClaimManager.Claim[] bucket(String worldName, int chunkX, int chunkZ) {
+        Partition partition = worlds.get(worldName);
+        if (partition == null) {
+            return null;
+        }
+        ClaimManager.Claim[] bucket = partition.chunks.get(chunkKey(chunkX, chunkZ));
+        ClaimManager.Claim[] large = partition.large;
+        for (int i = 0; i < large.length; i++) {
+            if (touches(large[i], chunkX, chunkX, chunkZ, chunkZ)) {
+                return withLarge(bucket, large, i, chunkX, chunkZ);
+            }
+        }
+        return bucket;
+    }
+
+    // The bucket plus the large claims from index first on that touch the chunk
+    private static ClaimManager.Claim[] withLarge(ClaimManager.Claim[] bucket, ClaimManager.Claim[] large, int first,
+                                                 int chunkX, int chunkZ) {
+        List<ClaimManager.Claim> merged = new ArrayList<>();
+        if (bucket != null) {
+            Collections.addAll(merged, bucket);
+        }
+        for (int i = first; i < large.length; i++) {
+            if (touches(large[i], chunkX, chunkX, chunkZ, chunkZ)) {
+                merged.add(large[i]);
+            }
+        }
+        return merged.toArray(EMPTY);
+    }
+
+    // Classify a chunk column from its bucket: OUTSIDE if no claim touches it, INSIDE if a single
+    // claim covers every block column of it, BORDER otherwise (claim edges, several claims).
+    // For an INSIDE chunk the claim is bucket[0]; only the Y range is left to check.
+    static int classify(ClaimManager.Claim[] bucket, int chunkX, int chunkZ) {
+        if (bucket == null) {
+            return OUTSIDE;
+        }
+        if (bucket.length == 1) {
+            ClaimManager.Claim claim = bucket[0];
+            int minX = chunkX << CHUNK_SHIFT;
+            int minZ = chunkZ << CHUNK_SHIFT;
+            int size = 1 << CHUNK_SHIFT;
+            if (claim.getMinX() <= minX && claim.getMaxX() >= minX + size - 1 &&
+                    claim.getMinZ() <= minZ && claim.getMaxZ() >= minZ + size - 1) {
+                return INSIDE;
+            }
+        }
+        return BORDER;
+    }
+
+    // Find the claim in a bucket containing a block position, or null
+    static ClaimManager.Claim find(ClaimManager.Claim[] bucket, int x, int y, int z) {
+        if (bucket == null) {
+            return null;
+        }
+        for (ClaimManager.Claim claim : bucket) {
+            if (claim.contains(x, y, z)) {
+                return claim;
+            }
+        }
+        return null;
+    }
+
+    // Find a registered claim overlapping the given one, looking only at the chunks it covers
+    ClaimManager.Claim findOverlap(ClaimManager.Claim claim) {
+        Partition partition = worlds.get(claim.getWorldName());
+        if (partition == null) {
+            return null;
+        }
+        for (ClaimManager.Claim other : partition.large) {
+            if (other.overlaps(claim)) {
+                return other;
+            }
+        }
+        Map<Long, ClaimManager.Claim[]> chunks = partition.chunks;
+        if (chunkCount(claim) > chunks.size()) {
+            // Fewer occupied chunks than chunks to look at
+            for (ClaimManager.Claim[] bucket : chunks.values()) {
+                for (ClaimManager.Claim other : bucket) {
+                    if (other.overlaps(claim)) {
+                        return other;
+                    }
+                }
+            }
+            return null;
+        }
+        for (int cx = claim.getMinX() >> CHUNK_SHIFT; cx <= claim.getMaxX() >> CHUNK_SHIFT; cx++) {
+            for (int cz = claim.getMinZ() >> CHUNK_SHIFT; cz <= claim.getMaxZ() >> CHUNK_SHIFT; cz++) {
+                ClaimManager.Claim[] bucket = chunks.get(chunkKey(cx, cz));
+                if (bucket == null) {
+                    continue;
+                }
+                for (ClaimManager.Claim other : bucket) {
+                    if (other.overlaps(claim)) {
+                        return other;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    // Collect every claim registered in a rectangle of chunks, without duplicates (the list may be
+    // filtered further by the caller)
+    List<ClaimManager.Claim> findInChunks(String worldName, int minChunkX, int maxChunkX, int minChunkZ, int maxChunkZ) {
+        Partition partition = worlds.get(worldName);
+        if (partition == null) {
+            return Collections.emptyList();
+        }
+        Map<Long, ClaimManager.Claim[]> chunks = partition.chunks;
+        Set<ClaimManager.Claim> found = new LinkedHashSet<>();
+        if (((long) maxChunkX - minChunkX + 1) * ((long) maxChunkZ - minChunkZ + 1) > chunks.size()) {
+            // Fewer occupied chunks than chunks in the rectangle
+            for (ClaimManager.Claim[] bucket : chunks.values()) {
+                for (ClaimManager.Claim claim : bucket) {
+                    if (touches(claim, minChunkX, maxChunkX, minChunkZ, maxChunkZ)) {
+                        found.add(claim);
+                    }
+                }
+            }
+        } else {
+            for (int cx = minChunkX; cx <= maxChunkX; cx++) {
+                for (int cz = minChunkZ; cz <= maxChunkZ; cz++) {
+                    ClaimManager.Claim[] bucket = chunks.get(chunkKey(cx, cz));
+                    if (bucket != null) {
+                        Collections.addAll(found, bucket);
+                    }
+                }
+            }
+        }
+        for (ClaimManager.Claim claim : partition.large) {
+            if (touches(claim, minChunkX, maxChunkX, minChunkZ, maxChunkZ)) {
+                found.add(claim);
+            }
+        }
+        return found.isEmpty() ? Collections.<ClaimManager.Claim>emptyList() : new ArrayList<>(found);
+    }
+
+    private static boolean isLarge(ClaimManager.Claim claim) {
+        return chunkCount(claim) > LARGE_CLAIM_CHUNKS;
+    }
+
+    private static long chunkCount(ClaimManager.Claim claim) {
+        return ((long) (claim.getMaxX() >> CHUNK_SHIFT) - (claim.getMinX() >> CHUNK_SHIFT) + 1) *
+                ((long) (claim.getMaxZ() >> CHUNK_SHIFT) - (claim.getMinZ() >> CHUNK_SHIFT) + 1);
+    }
+
+    // Check if a claim covers any chunk column of a rectangle of chunks
+    private static boolean touches(ClaimManager.Claim claim, int minChunkX, int maxChunkX, int minChunkZ, int maxChunkZ) {
+        return claim.getMinX() >> CHUNK_SHIFT <= maxChunkX && claim.getMaxX() >> CHUNK_SHIFT >= minChunkX &&
+                claim.getMinZ() >> CHUNK_SHIFT <= maxChunkZ && claim.getMaxZ() >> CHUNK_SHIFT >= minChunkZ;
+    }
+
+    private static ClaimManager.Claim[] without(ClaimManager.Claim[] bucket, ClaimManager.Claim claim) {
+        for (int i = 0; i < bucket.length; i++) {
+            if (bucket[i] == claim) {
+                ClaimManager.Claim[] shrunk = new ClaimManager.Claim[bucket.length - 1];
+                System.arraycopy(bucket, 0, shrunk, 0, i);
+                System.arraycopy(bucket, i + 1, shrunk, i, bucket.length - i - 1);
+                return shrunk;
+            }
+        }
+        return bucket;
+    }
+
+    // The index of one world: the chunk grid and the large claims
+    private static final class Partition {
+        final Map<Long, ClaimManager.Claim[]> chunks = new ConcurrentHashMap<>();
+        volatile ClaimManager.Claim[] large = EMPTY;
+
+        void addLarge(ClaimManager.Claim claim) {
+            ClaimManager.Claim[] grown = Arrays.copyOf(large, large.length + 1);
+            grown[large.length] = claim;
+            large = grown;
+        }
+
+        boolean isEmpty() {
+            return chunks.isEmpty() && large.length == 0;
+        }
+    }
+
+    // Packed chunk coordinates, run through a bijective mix: Long.hashCode of the plain packed
+    // value is chunkX ^ chunkZ, which sends whole diagonals of chunks to the same hash bucket.
+    static long chunkKey(int chunkX, int chunkZ) {
+        long key = ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+        key = (key ^ (key >>> 33)) * 0xFF51AFD7ED558CCDL;
+        key = (key ^ (key >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return key ^ (key >>> 33);
+    }
+}
@@ -2,116 +2,371 @@ package net.safeclaim;
 
 import org.bukkit.ChatColor;
 import org.bukkit.Location;
+import org.bukkit.block.Block;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
 import org.bukkit.entity.Projectile;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.Action;
 import org.bukkit.event.block.BlockBreakEvent;
 import org.bukkit.event.block.BlockDamageEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
 import org.bukkit.event.entity.EntityDamageByEntityEvent;
 import org.bukkit.event.entity.EntityDamageEvent;
 import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.hanging.HangingPlaceEvent;
+import org.bukkit.event.player.PlayerBucketEmptyEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
 import org.bukkit.inventory.ItemStack;
 
+import java.util.List;
+import java.util.function.Predicate;
+
+// Every handler rejects as much traffic as possible with the cheapest checks first (already
+// cancelled, wrong action, world without claims) before running a claim lookup. The claim's
+// rules are then a flag bit test and, for players, a trust set lookup on the lookup result.
+// Call rates, hit ratios, latencies and how far events get through each handler's filters are
+// recorded in PerfMetrics, see /safeclaim perf.
 public class ClaimListener implements Listener {
 
-    private final Main plugin;
     private final ClaimManager claimManager;
+    // Recognises the claim tool (Main::isClaimTool on a server; simulations pass their own)
+    private final Predicate<ItemStack> claimTool;
+    // Reused for entity positions so damage checks don't allocate (events only fire on the main thread)
+    private final Location scratch = new Location(null, 0, 0, 0);
+
+    private final PerfMetrics.Probe interactProbe;
+    private final PerfMetrics.Probe useProbe;
+    private final PerfMetrics.Probe breakProbe;
+    private final PerfMetrics.Probe blockDamageProbe;
+    private final PerfMetrics.Probe placeProbe;
+    private final PerfMetrics.Probe bucketProbe;
+    private final PerfMetrics.Probe hangingProbe;
+    private final PerfMetrics.Probe entityDamageByEntityProbe;
+    private final PerfMetrics.Probe entityDamageProbe;
+    private final PerfMetrics.Probe explodeProbe;
 
-    public ClaimListener(Main plugin, ClaimManager claimManager) {
-        this.plugin = plugin;
+    public ClaimListener(ClaimManager claimManager, PerfMetrics metrics, Predicate<ItemStack> claimTool) {
         this.claimManager = claimManager;
+        this.claimTool = claimTool;
+        this.interactProbe = metrics.probe("listener.interact", "right-click block", "claim tool");
+        this.useProbe = metrics.probe("listener.block-use", "world has claims", "in claim", "denied");
+        this.breakProbe = metrics.probe("listener.block-break", "world has claims", "in claim", "denied");
+        this.blockDamageProbe = metrics.probe("listener.block-damage", "world has claims", "in claim", "denied");
+        this.placeProbe = metrics.probe("listener.block-place", "world has claims", "in claim", "denied");
+        this.bucketProbe = metrics.probe("listener.bucket-empty", "world has claims", "in claim", "denied");
+        this.hangingProbe = metrics.probe("listener.hanging-place", "by player", "world has claims", "in claim", "denied");
+        this.entityDamageByEntityProbe = metrics.probe("listener.entity-damage-by-entity", "world has claims", "denied");
+        this.entityDamageProbe = metrics.probe("listener.entity-damage", "not by entity", "world has claims", "in claim");
+        this.explodeProbe = metrics.probe("listener.explosion", "has blocks", "world has claims");
     }
 
-    @EventHandler
+    @EventHandler(priority = EventPriority.LOW, ignoreCancelled = true)
     public void onPlayerInteract(PlayerInteractEvent event) {
-        Player player = event.getPlayer();
-        ItemStack item = event.getItem();
+        long start = interactProbe.start();
+        interactProbe.stop(start, handleInteract(event));
+    }
+
+    private boolean handleInteract(PlayerInteractEvent event) {
+        // Walking over pressure plates, left clicks and clicks in the air are never selections
+        if (event.getAction() != Action.RIGHT_CLICK_BLOCK) {
+            return false;
+        }
+        interactProbe.pass(0);
 
         // Check if the item is the claim tool
-        if (item != null && item.isSimilar(Main.createClaimTool())) {
-            if (event.getAction() == Action.RIGHT_CLICK_BLOCK) {
-                Location location = event.getClickedBlock().getLocation();
-                claimManager.addSelection(player.getUniqueId(), location);
-                player.sendMessage(ChatColor.GREEN + "Position set!");
-                event.setCancelled(true);
-            }
+        if (!claimTool.test(event.getItem())) {
+            long start = useProbe.start();
+            boolean denied = protectBlockUse(event);
+            useProbe.stop(start, denied);
+            return denied;
         }
+        interactProbe.pass(1);
+
+        Player player = event.getPlayer();
+        Location location = event.getClickedBlock().getLocation();
+        claimManager.addSelection(player.getUniqueId(), location);
+        player.sendMessage(ChatColor.GREEN + "Position set!");
+        event.setCancelled(true);
+        return true;
     }
 
-    @EventHandler
-    public void onBlockBreak(BlockBreakEvent event) {
+    // Right-clicks on doors, chests, buttons... in claims without the INTERACT flag
+    private boolean protectBlockUse(PlayerInteractEvent event) {
+        Block block = event.getClickedBlock();
+        if (!claimManager.hasClaims(block.getWorld())) {
+            return false;
+        }
+        useProbe.pass(0);
+
+        ClaimManager.Claim claim = claimManager.getClaimAt(block);
+        if (claim == null) {
+            return false;
+        }
+        useProbe.pass(1);
+
         Player player = event.getPlayer();
-        if (claimManager.isInClaim(event.getBlock().getLocation())) {
-            event.setCancelled(true);
-            player.sendMessage(ChatColor.RED + "You cannot break blocks in a safe claim!");
+        if (claim.permits(player.getUniqueId(), ClaimManager.Claim.INTERACT)) {
+            return false;
+        }
+        useProbe.pass(2);
+        event.setCancelled(true);
+        player.sendMessage(ChatColor.RED + "You cannot use blocks in this claim!");
+        return true;
+    }
+
+    @EventHandler(priority = EventPriority.LOW, ignoreCancelled = true)
+    public void onBlockBreak(BlockBreakEvent event) {
+        long start = breakProbe.start();
+        breakProbe.stop(start, protectBlockBreak(event));
+    }
+
+    private boolean protectBlockBreak(BlockBreakEvent event) {
+        if (!claimManager.hasClaims(event.getBlock().getWorld())) {
+            return false;
+        }
+        breakProbe.pass(0);
+
+        ClaimManager.Claim claim = claimManager.getClaimAt(event.getBlock());
+        if (claim == null) {
+            return false;
         }
+        breakProbe.pass(1);
+
+        if (claim.permits(event.getPlayer().getUniqueId(), ClaimManager.Claim.BUILD)) {
+            return false;
+        }
+        breakProbe.pass(2);
+        event.setCancelled(true);
+        event.getPlayer().sendMessage(ChatColor.RED + "You cannot break blocks in a safe claim!");
+        return true;
     }
 
-    @EventHandler
+    @EventHandler(priority = EventPriority.LOW, ignoreCancelled = true)
     public void onBlockDamage(BlockDamageEvent event) {
+        long start = blockDamageProbe.start();
+        blockDamageProbe.stop(start, protectBlockDamage(event));
+    }
+
+    private boolean protectBlockDamage(BlockDamageEvent event) {
+        if (!claimManager.hasClaims(event.getBlock().getWorld())) {
+            return false;
+        }
+        blockDamageProbe.pass(0);
+
+        ClaimManager.Claim claim = claimManager.getClaimAt(event.getBlock());
+        if (claim == null) {
+            return false;
+        }
+        blockDamageProbe.pass(1);
+
+        if (claim.permits(event.getPlayer().getUniqueId(), ClaimManager.Claim.BUILD)) {
+            return false;
+        }
+        blockDamageProbe.pass(2);
+        event.setCancelled(true);
+        event.getPlayer().sendMessage(ChatColor.RED + "You cannot damage blocks in a safe claim!");
+        return true;
+    }
+
+    @EventHandler(priority = EventPriority.LOW, ignoreCancelled = true)
+    public void onBlockPlace(BlockPlaceEvent event) {
+        long start = placeProbe.start();
+        placeProbe.stop(start, protectBlockPlace(event));
+    }
+
+    private boolean protectBlockPlace(BlockPlaceEvent event) {
+        Block block = event.getBlockPlaced();
+        if (!claimManager.hasClaims(block.getWorld())) {
+            return false;
+        }
+        placeProbe.pass(0);
+
+        ClaimManager.Claim claim = claimManager.getClaimAt(block);
+        if (claim == null) {
+            return false;
+        }
+        placeProbe.pass(1);
+
+        if (claim.permits(event.getPlayer().getUniqueId(), ClaimManager.Claim.BUILD)) {
+            return false;
+        }
+        placeProbe.pass(2);
+        event.setCancelled(true);
+        event.getPlayer().sendMessage(ChatColor.RED + "You cannot place blocks in a safe claim!");
+        return true;
+    }
+
+    @EventHandler(priority = EventPriority.LOW, ignoreCancelled = true)
+    public void onBucketEmpty(PlayerBucketEmptyEvent event) {
+        long start = bucketProbe.start();
+        bucketProbe.stop(start, protectFromBucket(event));
+    }
+
+    // Water and lava are checked where they end up, which may be just across a claim border
+    // from the clicked block
+    private boolean protectFromBucket(PlayerBucketEmptyEvent event) {
+        Block block = event.getBlock();
+        if (!claimManager.hasClaims(block.getWorld())) {
+            return false;
+        }
+        bucketProbe.pass(0);
+
+        ClaimManager.Claim claim = claimManager.getClaimAt(block);
+        if (claim == null) {
+            return false;
+        }
+        bucketProbe.pass(1);
+
+        if (claim.permits(event.getPlayer().getUniqueId(), ClaimManager.Claim.BUILD)) {
+            return false;
+        }
+        bucketProbe.pass(2);
+        event.setCancelled(true);
+        event.getPlayer().sendMessage(ChatColor.RED + "You cannot empty buckets in a safe claim!");
+        return true;
+    }
+
+    @EventHandler(priority = EventPriority.LOW, ignoreCancelled = true)
+    public void onHangingPlace(HangingPlaceEvent event) {
+        long start = hangingProbe.start();
+        hangingProbe.stop(start, protectFromHanging(event));
+    }
+
+    // Item frames, paintings and leashes; they hang in front of the block they were placed on
+    private boolean protectFromHanging(HangingPlaceEvent event) {
         Player player = event.getPlayer();
-        if (claimManager.isInClaim(event.getBlock().getLocation())) {
-            event.setCancelled(true);
-            player.sendMessage(ChatColor.RED + "You cannot damage blocks in a safe claim!");
+        if (player == null) {
+            return false;
+        }
+        hangingProbe.pass(0);
+        Block block = event.getBlock().getRelative(event.getBlockFace());
+        if (!claimManager.hasClaims(block.getWorld())) {
+            return false;
         }
+        hangingProbe.pass(1);
+
+        ClaimManager.Claim claim = claimManager.getClaimAt(block);
+        if (claim == null) {
+            return false;
+        }
+        hangingProbe.pass(2);
+
+        if (claim.permits(player.getUniqueId(), ClaimManager.Claim.BUILD)) {
+            return false;
+        }
+        hangingProbe.pass(3);
+        event.setCancelled(true);
+        player.sendMessage(ChatColor.RED + "You cannot place that in a safe claim!");
+        return true;
     }
 
-    @EventHandler
+    @EventHandler(priority = EventPriority.LOW, ignoreCancelled = true)
     public void onEntityDamage(EntityDamageByEntityEvent event) {
+        long start = entityDamageByEntityProbe.start();
+        entityDamageByEntityProbe.stop(start, protectEntityFromEntity(event));
+    }
+
+    private boolean protectEntityFromEntity(EntityDamageByEntityEvent event) {
         Entity entity = event.getEntity();
-        Entity damager = event.getDamager();
-        Location entityLocation = entity.getLocation();
+        if (!claimManager.hasClaims(entity.getWorld())) {
+            return false;
+        }
+        entityDamageByEntityProbe.pass(0);
 
-        // Prevent entities from damaging players or other entities in a claim
-        if (entity instanceof Player) {
-            Player player = (Player) entity;
-            if (claimManager.isInClaim(entityLocation)) {
-                event.setCancelled(true);
-            }
-        } else if (damager instanceof Player) {
-            Player player = (Player) damager;
-            if (claimManager.isInClaim(player.getLocation())) {
-                event.setCancelled(true);
-                player.sendMessage(ChatColor.RED + "You cannot damage entities in a safe claim!");
-            }
-        } else if (damager instanceof Projectile) {
-            // Prevent projectiles (e.g., arrows, fireballs) from damaging entities in a claim
-            Projectile projectile = (Projectile) damager;
-            if (projectile.getShooter() instanceof Player) {
-                Player shooter = (Player) projectile.getShooter();
-                if (claimManager.isInClaim(shooter.getLocation())) {
-                    event.setCancelled(true);
-                    shooter.sendMessage(ChatColor.RED + "You cannot damage entities in a safe claim!");
-                }
-            } else if (claimManager.isInClaim(entityLocation)) {
-                event.setCancelled(true);
-            }
-        } else {
-            // Prevent entities from damaging other entities in a claim
-            if (claimManager.isInClaim(entityLocation)) {
-                event.setCancelled(true);
-            }
-        }
-    }
-
-    @EventHandler
+        if (!isProtectedFrom(entity, event.getDamager())) {
+            return false;
+        }
+        entityDamageByEntityProbe.pass(1);
+        event.setCancelled(true);
+        return true;
+    }
+
+    @EventHandler(priority = EventPriority.LOW, ignoreCancelled = true)
     public void onEntityDamage(EntityDamageEvent event) {
+        long start = entityDamageProbe.start();
+        entityDamageProbe.stop(start, protectEntity(event));
+    }
+
+    private boolean protectEntity(EntityDamageEvent event) {
+        // Hits by players and mobs follow the claim's flags, see protectEntityFromEntity
+        if (event instanceof EntityDamageByEntityEvent) {
+            return false;
+        }
+        entityDamageProbe.pass(0);
         Entity entity = event.getEntity();
-        Location entityLocation = entity.getLocation();
+        if (!claimManager.hasClaims(entity.getWorld())) {
+            return false;
+        }
+        entityDamageProbe.pass(1);
 
-        // Prevent entities from being damaged in a claim
-        if (claimManager.isInClaim(entityLocation)) {
-            event.setCancelled(true);
+        // Prevent entities from being damaged in a claim (players are answered from the position cache)
+        boolean inClaim = entity instanceof Player
+                ? claimManager.isInClaim((Player) entity)
+                : claimManager.isInClaim(entity.getLocation(scratch));
+        if (!inClaim) {
+            return false;
         }
+        entityDamageProbe.pass(2);
+        event.setCancelled(true);
+        return true;
     }
 
-    @EventHandler
+    @EventHandler(priority = EventPriority.LOW, ignoreCancelled = true)
     public void onEntityExplode(EntityExplodeEvent event) {
+        long start = explodeProbe.start();
+        explodeProbe.stop(start, protectFromExplosion(event));
+    }
+
+    private boolean protectFromExplosion(EntityExplodeEvent event) {
+        List<Block> blocks = event.blockList();
+        if (blocks.isEmpty()) {
+            return false;
+        }
+        explodeProbe.pass(0);
+        if (!claimManager.hasClaims(blocks.get(0).getWorld())) {
+            return false;
+        }
+        explodeProbe.pass(1);
+
         // Prevent explosions (e.g., fireballs, TNT) from damaging blocks in a claim
-        event.blockList().removeIf(block -> claimManager.isInClaim(block.getLocation()));
+        int before = blocks.size();
+        claimManager.removeClaimedBlocks(blocks);
+        return blocks.size() != before;
+    }
+
+    // Decide whether a hit by damager on entity is forbidden by the claim the entity is in:
+    // PvP and mob damage follow the claim's flags, players hurting other entities (animals,
+    // item frames...) count as building
+    private boolean isProtectedFrom(Entity entity, Entity damager) {
+        ClaimManager.Claim claim = entity instanceof Player
+                ? claimManager.getClaimAt((Player) entity)
+                : claimManager.getClaimAt(entity.getLocation(scratch));
+        if (claim == null) {
+            return false;
+        }
+
+        Player attacker = null;
+        if (damager instanceof Player) {
+            attacker = (Player) damager;
+        } else if (damager instanceof Projectile && ((Projectile) damager).getShooter() instanceof Player) {
+            // Arrows, tridents, thrown potions... count as their shooter
+            attacker = (Player) ((Projectile) damager).getShooter();
+        }
+
+        if (attacker == null) {
+            // Mobs, their projectiles, TNT and the like
+            return !claim.hasFlag(ClaimManager.Claim.MOB_DAMAGE);
+        }
+        if (entity instanceof Player) {
+            return !claim.hasFlag(ClaimManager.Claim.PVP);
+        }
+        if (claim.permits(attacker.getUniqueId(), ClaimManager.Claim.BUILD)) {
+            return false;
+        }
+        attacker.sendMessage(ChatColor.RED + "You cannot damage entities in a safe claim!");
+        return true;
     }
 }
@@ -1,20 +1,85 @@
 package net.safeclaim;
 
 import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.entity.Player;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
+// Claim bounds are immutable and claims are stored in concurrent maps, so lookups are lock-free
+// and safe from any thread (async chat, map renderers, web dashboards...). Writes, including
+// flag and trust changes, are serialized on a single lock that readers never take.
+//
+// Claims are keyed by world name and never hold a World, so they load fine before their world
+// does. Once bindWorlds() has been called, the spatial index only holds partitions for loaded
+// worlds: a partition is built when its world loads and dropped again when it unloads.
 public class ClaimManager {
-    private final Map<UUID, ClaimSelection> selections = new HashMap<>();
-    private final Map<UUID, Map<String, Claim>> claims = new HashMap<>();
+    private final Map<UUID, ClaimSelection> selections = new ConcurrentHashMap<>();
+    // The claim maps and the index are only replaced as a whole, see replaceClaims()
+    private volatile Map<UUID, Map<String, Claim>> claims = new ConcurrentHashMap<>();
+    private volatile ClaimIndex index = new ClaimIndex();
+    // Every claim per world name, whether or not the world is loaded
+    private volatile Map<String, Set<Claim>> worldClaims = new ConcurrentHashMap<>();
+    // Worlds whose index partition is built; null until bindWorlds(), which means every world
+    private volatile Set<String> loadedWorlds;
+    private final Map<String, int[]> heightLimits = new ConcurrentHashMap<>();
+    private volatile int[] defaultHeightLimits = {-64, 320};
+    private final Object writeLock = new Object();
+    // Bumped by every change to the claim maps or the index (under the write lock)
+    private volatile long version;
+    private volatile ChangeListener changeListener;
+    private final Map<UUID, PlayerPosition> positions = new ConcurrentHashMap<>();
+    private final PerfMetrics.Probe lookupProbe;
+    private final PerfMetrics.Probe explosionProbe;
+    private final PerfMetrics.Probe createProbe;
+    private final PerfMetrics.Probe boundaryProbe;
+    // Boundary checks that could not be settled per chunk column (counted, not timed)
+    private final PerfMetrics.Probe boundaryBlockProbe;
+
+    public ClaimManager() {
+        this(PerfMetrics.DISABLED);
+    }
+
+    public ClaimManager(PerfMetrics metrics) {
+        this.lookupProbe = metrics.probe("manager.lookup");
+        this.explosionProbe = metrics.probe("manager.explosion-filter");
+        this.createProbe = metrics.probe("manager.create");
+        this.boundaryProbe = metrics.probe("manager.boundary-check");
+        this.boundaryBlockProbe = metrics.probe("manager.boundary-block-check");
+    }
+
+    // Notified of every claim created, deleted or changed (flags, trust list), while the write
+    // lock is held so that notifications arrive in the same order as the changes.
+    // Implementations must not block.
+    public interface ChangeListener {
+        void claimCreated(UUID owner, Claim claim);
+
+        void claimDeleted(UUID owner, Claim claim);
+
+        void claimUpdated(UUID owner, Claim claim);
+
+        // Many claims were added and removed at once (bulk import)
+        void claimsReplaced(Collection<Claim> added, Collection<Claim> removed);
+    }
+
+    public void setChangeListener(ChangeListener changeListener) {
+        this.changeListener = changeListener;
+    }
 
     // Add a location to the player's selection
     public void addSelection(UUID playerId, Location location) {
-        ClaimSelection selection = selections.getOrDefault(playerId, new ClaimSelection());
-        selection.addLocation(location);
-        selections.put(playerId, selection);
+        selections.computeIfAbsent(playerId, k -> new ClaimSelection()).addLocation(location);
     }
 
     // Get the player's selection
@@ -22,30 +87,492 @@ public class ClaimManager {
         return selections.get(playerId);
     }
 
-    // Create a claim with the selected area
-    public boolean createClaim(UUID playerId, String name, Location corner1, Location corner2) {
-        // Check if the area is already claimed
-        for (Map<String, Claim> playerClaims : claims.values()) {
-            for (Claim claim : playerClaims.values()) {
-                if (claim.overlaps(corner1, corner2)) {
-                    return false;
+    // Set the vertical extent of claims in a world
+    public void setHeightLimits(String worldName, int minY, int maxY) {
+        heightLimits.put(worldName, new int[]{Math.min(minY, maxY), Math.max(minY, maxY)});
+    }
+
+    // Set the vertical extent of claims in worlds without their own limits
+    public void setDefaultHeightLimits(int minY, int maxY) {
+        defaultHeightLimits = new int[]{Math.min(minY, maxY), Math.max(minY, maxY)};
+    }
+
+    // Start indexing only the given (loaded) worlds; other worlds get their index partition when
+    // worldLoaded() is called for them
+    public void bindWorlds(Collection<String> worldNames) {
+        synchronized (writeLock) {
+            Set<String> loaded = ConcurrentHashMap.newKeySet();
+            loaded.addAll(worldNames);
+            loadedWorlds = loaded;
+            for (String worldName : worldClaims.keySet()) {
+                if (!loaded.contains(worldName)) {
+                    index.removeWorld(worldName);
                 }
             }
+            version++;
+            // Cached positions may point at claims that are no longer indexed
+            refreshPositions(null);
         }
+    }
 
-        Claim claim = new Claim(name, corner1, corner2);
-        claims.computeIfAbsent(playerId, k -> new HashMap<>()).put(name, claim);
+    // Build the index partition of a world that just loaded
+    public void worldLoaded(String worldName) {
+        synchronized (writeLock) {
+            Set<String> loaded = loadedWorlds;
+            if (loaded == null || !loaded.add(worldName)) {
+                return;
+            }
+            Set<Claim> inWorld = worldClaims.get(worldName);
+            if (inWorld != null) {
+                // Subclaims are indexed by their parents, which stay linked while the world is unloaded
+                List<Claim> topLevel = new ArrayList<>();
+                for (Claim claim : inWorld) {
+                    if (claim.getParent() == null) {
+                        topLevel.add(claim);
+                    }
+                }
+                index.addAll(topLevel);
+            }
+            version++;
+            refreshPositions(worldName);
+        }
+    }
+
+    // Drop the index partition of a world that unloaded; its claims stay known and saved
+    public void worldUnloaded(String worldName) {
+        synchronized (writeLock) {
+            Set<String> loaded = loadedWorlds;
+            if (loaded != null && loaded.remove(worldName)) {
+                index.removeWorld(worldName);
+                version++;
+                refreshPositions(worldName);
+            }
+        }
+    }
+
+    // Check if a world's claims are in the spatial index
+    public boolean isWorldIndexed(String worldName) {
+        Set<String> loaded = loadedWorlds;
+        return loaded == null || loaded.contains(worldName);
+    }
+
+    // Create a claim with the selected area
+    public CreateResult createClaim(UUID playerId, String name, Location corner1, Location corner2) {
+        return createClaim(playerId, name, corner1.getWorld().getName(),
+                corner1.getBlockX(), corner1.getBlockZ(), corner2.getBlockX(), corner2.getBlockZ());
+    }
+
+    // Create a claim between two block columns of a world. Fails with the conflicting claim if the
+    // player already has a claim of that name or the area is already claimed.
+    public CreateResult createClaim(UUID playerId, String name, String worldName, int x1, int z1, int x2, int z2) {
+        Claim claim = buildClaim(playerId, name, worldName, x1, z1, x2, z2);
+
+        long start = createProbe.start();
+        synchronized (writeLock) {
+            // Check if the area is already claimed, looking only at claims in the same chunks
+            Claim conflict = getClaim(playerId, name);
+            if (conflict == null) {
+                conflict = findOverlap(claim);
+            }
+            if (conflict != null) {
+                createProbe.stop(start, false);
+                return new CreateResult(null, conflict);
+            }
+
+            putClaim(claim);
+            ChangeListener listener = changeListener;
+            if (listener != null) {
+                listener.claimCreated(playerId, claim);
+            }
+        }
+        createProbe.stop(start, true);
         selections.remove(playerId); // Clear the selection after creating the claim
-        return true;
+        return new CreateResult(claim, null);
     }
 
-    // Delete a claim
+    // Create a subclaim of the selected area inside one of the player's claims
+    public CreateResult createSubclaim(UUID playerId, String parentName, String name, Location corner1, Location corner2) {
+        return createSubclaim(playerId, parentName, name, corner1.getWorld().getName(),
+                corner1.getBlockX(), corner1.getBlockZ(), corner2.getBlockX(), corner2.getBlockZ());
+    }
+
+    // Create a subclaim inside one of the player's claims (which may itself be a subclaim). It
+    // starts with the parent's flags. Fails with the parent as the conflict if the area is not
+    // completely inside it, or with the conflicting claim if the player already has a claim of
+    // that name or the area overlaps another subclaim of the parent; with no conflict at all if
+    // the parent does not exist.
+    public CreateResult createSubclaim(UUID playerId, String parentName, String name, String worldName, int x1, int z1, int x2, int z2) {
+        Claim claim = buildClaim(playerId, name, worldName, x1, z1, x2, z2);
+        claim.setParentName(parentName);
+
+        long start = createProbe.start();
+        synchronized (writeLock) {
+            Claim parent = getClaim(playerId, parentName);
+            Claim conflict = getClaim(playerId, name);
+            if (conflict == null && parent != null) {
+                conflict = claim.isInside(parent) ? parent.findSubclaimOverlap(claim) : parent;
+            }
+            if (parent == null || conflict != null) {
+                createProbe.stop(start, false);
+                return new CreateResult(null, conflict);
+            }
+
+            claim.setFlags(parent.getFlags());
+            putClaim(claim);
+            ChangeListener listener = changeListener;
+            if (listener != null) {
+                listener.claimCreated(playerId, claim);
+            }
+        }
+        createProbe.stop(start, true);
+        selections.remove(playerId);
+        return new CreateResult(claim, null);
+    }
+
+    // Find an existing claim that overlaps the given area, or null if it is free. Worlds that are
+    // not loaded have no index partition, so their claims are scanned directly.
+    public Claim findOverlap(Claim claim) {
+        if (isWorldIndexed(claim.getWorldName())) {
+            return index.findOverlap(claim);
+        }
+        Set<Claim> inWorld = worldClaims.get(claim.getWorldName());
+        if (inWorld != null) {
+            for (Claim other : inWorld) {
+                if (other.overlaps(claim)) {
+                    return other;
+                }
+            }
+        }
+        return null;
+    }
+
+    // Put back a previously saved claim without overlap checks or change notifications
+    public void restoreClaim(Claim claim) {
+        synchronized (writeLock) {
+            putClaim(claim);
+        }
+    }
+
+    // Put back a claim changed elsewhere (e.g. on another server) without change notifications,
+    // unless it overlaps a claim other than the one it replaces: another subclaim of its parent,
+    // or for a top-level claim any other top-level claim. Returns that claim, or null if restored.
+    public Claim restoreClaimIfFree(Claim claim) {
+        synchronized (writeLock) {
+            Claim conflict = findRestoreConflict(claim);
+            if (conflict == null) {
+                putClaim(claim);
+            }
+            return conflict;
+        }
+    }
+
+    private Claim findRestoreConflict(Claim claim) {
+        String parentName = claim.getParentName();
+        Claim parent = parentName == null ? null : getClaim(claim.getOwner(), parentName);
+        if (parent == null || !claim.isInside(parent)) {
+            // Compared with the top-level claims of its world, like a stand-alone claim
+            parent = null;
+        }
+        Collection<Claim> others = parent != null ? parent.getChildren()
+                : worldClaims.getOrDefault(claim.getWorldName(), Collections.<Claim>emptySet());
+        for (Claim other : others) {
+            if (other.getParent() == parent && other.overlaps(claim) &&
+                    !(other.getOwner().equals(claim.getOwner()) && other.getName().equals(claim.getName()))) {
+                return other;
+            }
+        }
+        return null;
+    }
+
+    // Put back a batch of saved claims (e.g. on startup), building their index entries in one go.
+    // Subclaims may come before their parents; they are linked once every claim is known.
+    public void restoreClaims(Collection<Claim> restored) {
+        synchronized (writeLock) {
+            List<Claim> added = new ArrayList<>(restored.size());
+            List<Claim> nested = new ArrayList<>();
+            for (Claim claim : restored) {
+                Claim replaced = claims.computeIfAbsent(claim.getOwner(), k -> new ConcurrentHashMap<>()).put(claim.getName(), claim);
+                if (replaced != null) {
+                    unlink(replaced);
+                    forgetInWorld(replaced);
+                    added.remove(replaced);
+                    nested.remove(replaced);
+                    adoptSubclaims(claim, replaced);
+                }
+                worldClaims.computeIfAbsent(claim.getWorldName(), k -> ConcurrentHashMap.newKeySet()).add(claim);
+                if (claim.getParentName() != null) {
+                    nested.add(claim);
+                } else if (isWorldIndexed(claim.getWorldName())) {
+                    added.add(claim);
+                }
+            }
+            index.addAll(added);
+            for (Claim claim : nested) {
+                link(claim);
+            }
+            version++;
+            refreshPositions(null);
+        }
+    }
+
+    // Change counter for replaceClaims(); read it before reading the claims a replacement is based on
+    public long getVersion() {
+        return version;
+    }
+
+    // Replace every claim at once (bulk import). The new claim maps and index are built without
+    // the write lock and swapped in together, so lookups see either all old or all new claims.
+    // Claims kept from before should be passed as the same objects. Returns false, changing
+    // nothing, if claims changed since getVersion() returned expectedVersion.
+    public boolean replaceClaims(Collection<Claim> all, long expectedVersion) {
+        Map<UUID, Map<String, Claim>> newClaims = new ConcurrentHashMap<>();
+        Map<String, Set<Claim>> newWorldClaims = new ConcurrentHashMap<>();
+        for (Claim claim : all) {
+            newClaims.computeIfAbsent(claim.getOwner(), k -> new ConcurrentHashMap<>()).put(claim.getName(), claim);
+            newWorldClaims.computeIfAbsent(claim.getWorldName(), k -> ConcurrentHashMap.newKeySet()).add(claim);
+        }
+        // Subclaims are indexed by their parents; the links are made under the lock below
+        List<Claim> indexed = new ArrayList<>(all.size());
+        Map<Claim, Claim> parents = new IdentityHashMap<>();
+        for (Claim claim : all) {
+            String parentName = claim.getParentName();
+            Claim parent = parentName == null ? null : newClaims.get(claim.getOwner()).get(parentName);
+            if (parent != null && parent != claim && claim.isInside(parent)) {
+                parents.put(claim, parent);
+            } else if (isWorldIndexed(claim.getWorldName())) {
+                indexed.add(claim);
+            }
+        }
+        ClaimIndex newIndex = new ClaimIndex();
+        newIndex.addAll(indexed);
+
+        // Unchanged since expectedVersion (checked below), so this is what gets replaced
+        Set<Claim> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+        kept.addAll(all);
+        List<Claim> removed = new ArrayList<>();
+        Set<Claim> previous = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Claim claim : getAllClaims()) {
+            previous.add(claim);
+            if (!kept.contains(claim)) {
+                removed.add(claim);
+            }
+        }
+        List<Claim> added = new ArrayList<>();
+        for (Claim claim : all) {
+            if (!previous.contains(claim)) {
+                added.add(claim);
+            }
+        }
+
+        synchronized (writeLock) {
+            if (version != expectedVersion) {
+                return false;
+            }
+            for (Claim claim : removed) {
+                Claim parent = claim.getParent();
+                if (parent != null && kept.contains(parent)) {
+                    parent.removeChild(claim);
+                }
+            }
+            for (Claim claim : added) {
+                Claim parent = parents.get(claim);
+                if (parent != null) {
+                    parent.addChild(claim);
+                }
+            }
+            claims = newClaims;
+            worldClaims = newWorldClaims;
+            index = newIndex;
+            version++;
+            refreshPositions(null);
+            ChangeListener listener = changeListener;
+            if (listener != null) {
+                listener.claimsReplaced(added, removed);
+            }
+            return true;
+        }
+    }
+
+    // Build a claim between two block columns, spanning the height limits of its world
+    public Claim buildClaim(UUID owner, String name, String worldName, int x1, int z1, int x2, int z2) {
+        int[] limits = heightLimits.getOrDefault(worldName, defaultHeightLimits);
+        return new Claim(owner, name, worldName, x1, limits[0], z1, x2, limits[1], z2);
+    }
+
+    private void putClaim(Claim claim) {
+        Claim replaced = claims.computeIfAbsent(claim.getOwner(), k -> new ConcurrentHashMap<>()).put(claim.getName(), claim);
+        if (replaced != null) {
+            unlink(replaced);
+            forgetInWorld(replaced);
+        }
+        worldClaims.computeIfAbsent(claim.getWorldName(), k -> ConcurrentHashMap.newKeySet()).add(claim);
+        link(claim);
+        if (replaced != null) {
+            adoptSubclaims(claim, replaced);
+        }
+        adoptOrphans(claim);
+        version++;
+        refreshPositions(claim.getWorldName());
+    }
+
+    // Register a claim with its parent if it is a subclaim lying inside a known claim, in the
+    // index otherwise (callers must hold the write lock)
+    private void link(Claim claim) {
+        String parentName = claim.getParentName();
+        Claim parent = parentName == null ? null : getClaim(claim.getOwner(), parentName);
+        if (parent != null && parent != claim && claim.isInside(parent)) {
+            parent.addChild(claim);
+        } else if (isWorldIndexed(claim.getWorldName())) {
+            index.add(claim);
+        }
+    }
+
+    // Undo link() (callers must hold the write lock)
+    private void unlink(Claim claim) {
+        Claim parent = claim.getParent();
+        if (parent != null) {
+            parent.removeChild(claim);
+        } else {
+            index.remove(claim);
+        }
+    }
+
+    // Link subclaims that arrived before their parent (e.g. from another server) to it
+    // (callers must hold the write lock)
+    private void adoptOrphans(Claim claim) {
+        for (Claim other : claims.get(claim.getOwner()).values()) {
+            if (other != claim && other.getParent() == null && claim.getName().equals(other.getParentName()) &&
+                    other.isInside(claim)) {
+                index.remove(other);
+                claim.addChild(other);
+            }
+        }
+    }
+
+    // Move the subclaims of a claim that was replaced (e.g. changed by another server) to its
+    // replacement. Those that no longer lie inside it go back into the index, like subclaims
+    // whose parent is unknown (callers must hold the write lock).
+    private void adoptSubclaims(Claim claim, Claim replaced) {
+        for (Claim child : replaced.getChildren()) {
+            replaced.removeChild(child);
+            if (child.isInside(claim)) {
+                claim.addChild(child);
+            } else if (isWorldIndexed(child.getWorldName())) {
+                index.add(child);
+            }
+        }
+    }
+
+    private void forgetInWorld(Claim claim) {
+        Set<Claim> inWorld = worldClaims.get(claim.getWorldName());
+        if (inWorld != null && inWorld.remove(claim) && inWorld.isEmpty()) {
+            worldClaims.remove(claim.getWorldName());
+        }
+    }
+
+    // Delete a claim together with its subclaims
     public boolean deleteClaim(UUID playerId, String name) {
-        Map<String, Claim> playerClaims = claims.get(playerId);
-        if (playerClaims == null) {
-            return false;
+        synchronized (writeLock) {
+            Claim claim = getClaim(playerId, name);
+            if (claim == null) {
+                return false;
+            }
+            ChangeListener listener = changeListener;
+            for (Claim removed : removeWithSubclaims(claim)) {
+                if (listener != null) {
+                    listener.claimDeleted(removed.getOwner(), removed);
+                }
+            }
+            return true;
+        }
+    }
+
+    // Remove a claim and its subclaims without change notifications (e.g. one deleted by another server)
+    public boolean forgetClaim(UUID playerId, String name) {
+        synchronized (writeLock) {
+            Claim claim = getClaim(playerId, name);
+            if (claim == null) {
+                return false;
+            }
+            removeWithSubclaims(claim);
+            return true;
+        }
+    }
+
+    // Remove a claim and everything nested in it (callers must hold the write lock). Returns the
+    // removed claims innermost first, so storage never keeps a subclaim without its parent.
+    private List<Claim> removeWithSubclaims(Claim claim) {
+        List<Claim> removed = new ArrayList<>();
+        collectSubtree(claim, removed);
+        for (Claim inner : removed) {
+            Map<String, Claim> playerClaims = claims.get(inner.getOwner());
+            if (playerClaims == null || !playerClaims.remove(inner.getName(), inner)) {
+                continue;
+            }
+            unlink(inner);
+            forgetInWorld(inner);
+            if (playerClaims.isEmpty()) {
+                claims.remove(inner.getOwner());
+            }
+        }
+        version++;
+        refreshPositions(claim.getWorldName());
+        return removed;
+    }
+
+    private static void collectSubtree(Claim claim, List<Claim> into) {
+        for (Claim child : claim.getChildren()) {
+            collectSubtree(child, into);
+        }
+        into.add(claim);
+    }
+
+    // Turn a flag of a claim on or off; returns the claim, or null if it does not exist
+    public Claim setFlag(UUID playerId, String name, int flag, boolean enabled) {
+        synchronized (writeLock) {
+            Claim claim = getClaim(playerId, name);
+            if (claim == null) {
+                return null;
+            }
+            claim.setFlags(enabled ? claim.getFlags() | flag : claim.getFlags() & ~flag);
+            notifyUpdated(claim);
+            return claim;
+        }
+    }
+
+    // Add a player to or remove them from a claim's trust list; returns the claim, or null if it
+    // does not exist
+    public Claim setTrusted(UUID playerId, String name, UUID trustedId, boolean trusted) {
+        synchronized (writeLock) {
+            Claim claim = getClaim(playerId, name);
+            if (claim == null) {
+                return null;
+            }
+            Set<UUID> players = new HashSet<>(claim.getTrusted());
+            if (trusted ? players.add(trustedId) : players.remove(trustedId)) {
+                claim.setTrusted(players);
+                notifyUpdated(claim);
+            }
+            return claim;
+        }
+    }
+
+    // Put back the saved flags and trust list of a claim without change notifications
+    public void restoreSettings(UUID playerId, String name, int flags, Collection<UUID> trusted) {
+        synchronized (writeLock) {
+            Claim claim = getClaim(playerId, name);
+            if (claim != null) {
+                claim.setFlags(flags);
+                claim.setTrusted(trusted);
+            }
+        }
+    }
+
+    private void notifyUpdated(Claim claim) {
+        ChangeListener listener = changeListener;
+        if (listener != null) {
+            listener.claimUpdated(claim.getOwner(), claim);
         }
-        return playerClaims.remove(name) != null;
     }
 
     // Get a specific claim by name
@@ -57,32 +584,304 @@ public class ClaimManager {
         return playerClaims.get(name);
     }
 
-    // Get all claims for a player
+    // Get all claims for a player (read-only view)
     public Map<String, Claim> getPlayerClaims(UUID playerId) {
-        return claims.get(playerId);
+        Map<String, Claim> playerClaims = claims.get(playerId);
+        return playerClaims == null ? null : Collections.unmodifiableMap(playerClaims);
+    }
+
+    // Get a copy of every claim on the server
+    public List<Claim> getAllClaims() {
+        List<Claim> all = new ArrayList<>();
+        for (Map<String, Claim> playerClaims : claims.values()) {
+            all.addAll(playerClaims.values());
+        }
+        return all;
     }
 
-    // Get all claims (for saving to file)
+    // Get a read-only copy of all claims by owner and name (any thread). Claims created or
+    // deleted afterwards are not reflected in it.
     public Map<UUID, Map<String, Claim>> getClaims() {
-        return claims;
+        Map<UUID, Map<String, Claim>> copy = new HashMap<>();
+        for (Map.Entry<UUID, Map<String, Claim>> entry : claims.entrySet()) {
+            copy.put(entry.getKey(), Collections.unmodifiableMap(new HashMap<>(entry.getValue())));
+        }
+        return Collections.unmodifiableMap(copy);
     }
 
-    // Check if a location is inside any claim
-    public boolean isInClaim(Location location) {
+    // Find every claim within a horizontal radius of a block column (any thread). Small areas
+    // are answered from the index; areas covering more chunks than the world has claims, and
+    // worlds that are not loaded, are answered by scanning the world's claims.
+    public List<Claim> findClaimsNear(String worldName, int x, int z, int radius) {
+        // Nothing lies beyond the world border; also keeps x +- radius within int range
+        radius = Math.min(radius, 30_000_000);
+        Collection<Claim> candidates;
+        long chunkSpan = ((long) (radius >> ClaimIndex.CHUNK_SHIFT) * 2 + 2);
+        Set<Claim> inWorld = worldClaims.getOrDefault(worldName, Collections.<Claim>emptySet());
+        if (isWorldIndexed(worldName) && chunkSpan * chunkSpan <= inWorld.size()) {
+            List<Claim> nearby = new ArrayList<>(index.findInChunks(worldName, (x - radius) >> ClaimIndex.CHUNK_SHIFT,
+                    (x + radius) >> ClaimIndex.CHUNK_SHIFT, (z - radius) >> ClaimIndex.CHUNK_SHIFT, (z + radius) >> ClaimIndex.CHUNK_SHIFT));
+            // The index only holds top-level claims; their subclaims are near too if close enough
+            for (int i = 0; i < nearby.size(); i++) {
+                nearby.addAll(nearby.get(i).getChildren());
+            }
+            candidates = nearby;
+        } else {
+            candidates = inWorld;
+        }
+
+        long radiusSquared = (long) radius * radius;
+        List<Claim> found = new ArrayList<>();
+        for (Claim claim : candidates) {
+            if (claim.distanceSquared(x, z) <= radiusSquared) {
+                found.add(claim);
+            }
+        }
+        return found;
+    }
+
+    // Find every claim whose name starts with a prefix, ignoring case (any thread)
+    public List<Claim> findClaimsByName(String prefix) {
+        List<Claim> found = new ArrayList<>();
         for (Map<String, Claim> playerClaims : claims.values()) {
             for (Claim claim : playerClaims.values()) {
-                if (claim.contains(location)) {
-                    return true;
+                if (claim.getName().regionMatches(true, 0, prefix, 0, prefix.length())) {
+                    found.add(claim);
+                }
+            }
+        }
+        return found;
+    }
+
+    // Check if a world has any claims at all (a cheap pre-filter before real lookups)
+    public boolean hasClaims(World world) {
+        return index.hasWorld(world.getName());
+    }
+
+    // Check if a location is inside any claim
+    public boolean isInClaim(Location location) {
+        return getClaimAt(location) != null;
+    }
+
+    // Get the claim containing a location, or null if it is unclaimed
+    public Claim getClaimAt(Location location) {
+        if (location.getWorld() == null) {
+            return null;
+        }
+        return getClaimAt(location.getWorld().getName(), location.getBlockX(), location.getBlockY(), location.getBlockZ());
+    }
+
+    // Get the innermost claim containing a block position, or null if it is unclaimed
+    public Claim getClaimAt(String worldName, int x, int y, int z) {
+        long start = lookupProbe.start();
+        Claim claim = find(worldName, x, y, z);
+        lookupProbe.stop(start, claim != null);
+        return claim;
+    }
+
+    // Innermost claim containing a block position: the top-level claim from the index, then one
+    // subclaim index lookup per nesting level
+    private Claim find(String worldName, int x, int y, int z) {
+        Claim claim = index.find(worldName, x, y, z);
+        return claim == null ? null : claim.innermost(x, y, z);
+    }
+
+    // Check if a block is inside any claim, without allocating a Location
+    public boolean isInClaim(Block block) {
+        return getClaimAt(block) != null;
+    }
+
+    // Get the claim containing a block, or null if it is unclaimed
+    public Claim getClaimAt(Block block) {
+        return getClaimAt(block.getWorld().getName(), block.getX(), block.getY(), block.getZ());
+    }
+
+    // Check if something spreading from one block into another (flowing fluid, a pushed block,
+    // fire, a growing tree) would enter a claim that the source block is not part of.
+    // Most checks are settled per chunk column: an unclaimed target column, or source and target
+    // in a column that a single claim covers completely, never need a per-block test.
+    public boolean entersForeignClaim(String worldName, int fromX, int fromY, int fromZ, int toX, int toY, int toZ) {
+        long start = boundaryProbe.start();
+        boolean enters = crossesIntoClaim(worldName, fromX, fromY, fromZ, toX, toY, toZ);
+        boundaryProbe.stop(start, enters);
+        return enters;
+    }
+
+    private boolean crossesIntoClaim(String worldName, int fromX, int fromY, int fromZ, int toX, int toY, int toZ) {
+        int toChunkX = toX >> ClaimIndex.CHUNK_SHIFT;
+        int toChunkZ = toZ >> ClaimIndex.CHUNK_SHIFT;
+        Claim[] toBucket = index.bucket(worldName, toChunkX, toChunkZ);
+        int toClass = ClaimIndex.classify(toBucket, toChunkX, toChunkZ);
+        if (toClass == ClaimIndex.OUTSIDE) {
+            return false;
+        }
+
+        int fromChunkX = fromX >> ClaimIndex.CHUNK_SHIFT;
+        int fromChunkZ = fromZ >> ClaimIndex.CHUNK_SHIFT;
+        boolean sameChunk = fromChunkX == toChunkX && fromChunkZ == toChunkZ;
+        Claim[] fromBucket = sameChunk ? toBucket : index.bucket(worldName, fromChunkX, fromChunkZ);
+        if (toClass == ClaimIndex.INSIDE && !toBucket[0].hasSubclaimsIn(toChunkX, toChunkZ) && (sameChunk ||
+                ClaimIndex.classify(fromBucket, fromChunkX, fromChunkZ) == ClaimIndex.INSIDE && fromBucket[0] == toBucket[0] &&
+                        !fromBucket[0].hasSubclaimsIn(fromChunkX, fromChunkZ))) {
+            // Both columns lie in the same claim, away from its subclaims; only its Y range can
+            // still separate the blocks
+            Claim claim = toBucket[0];
+            return claim.contains(toX, toY, toZ) && !claim.contains(fromX, fromY, fromZ);
+        }
+
+        // Moving between a claim and its subclaims, or between two subclaims, also counts
+        Claim entered = ClaimIndex.find(toBucket, toX, toY, toZ);
+        if (entered != null) {
+            entered = entered.innermost(toX, toY, toZ);
+        }
+        Claim left = ClaimIndex.find(fromBucket, fromX, fromY, fromZ);
+        if (left != null) {
+            left = left.innermost(fromX, fromY, fromZ);
+        }
+        boolean enters = entered != null && entered != left;
+        boundaryBlockProbe.stop(0, enters);
+        return enters;
+    }
+
+    // Check if a player is standing in a claim
+    public boolean isInClaim(Player player) {
+        return getClaimAt(player) != null;
+    }
+
+    // Get the claim a player is standing in, or null. Online players are answered from the
+    // position cache; anything untracked (e.g. NPCs) falls back to a regular lookup.
+    public Claim getClaimAt(Player player) {
+        PlayerPosition position = positions.get(player.getUniqueId());
+        if (position == null) {
+            return getClaimAt(player.getLocation());
+        }
+        return position.claim;
+    }
+
+    // Get the claim a tracked player is standing in, or null
+    public Claim getPlayerClaim(UUID playerId) {
+        PlayerPosition position = positions.get(playerId);
+        return position == null ? null : position.claim;
+    }
+
+    // Record the block a player is standing in (called when they cross a block boundary) and
+    // return the claim containing it, or null
+    public Claim updatePlayerPosition(UUID playerId, String worldName, int x, int y, int z) {
+        PlayerPosition position = positions.computeIfAbsent(playerId, k -> new PlayerPosition());
+        synchronized (position) {
+            position.worldName = worldName;
+            position.x = x;
+            position.y = y;
+            position.z = z;
+            position.claim = find(worldName, x, y, z);
+            return position.claim;
+        }
+    }
+
+    // Stop tracking a player that left
+    public void forgetPlayer(UUID playerId) {
+        positions.remove(playerId);
+    }
+
+    // Re-resolve the cached claim of every tracked player in a world (or in every world, if null)
+    // after its claims changed
+    private void refreshPositions(String worldName) {
+        for (PlayerPosition position : positions.values()) {
+            synchronized (position) {
+                if (position.worldName != null && (worldName == null || worldName.equals(position.worldName))) {
+                    position.claim = find(position.worldName, position.x, position.y, position.z);
+                }
+            }
+        }
+    }
+
+    // Remove every block that lies inside a claim from the list (e.g. an explosion's block list),
+    // unless the claim has the EXPLOSIONS flag.
+    // The claims touching the bounding box of the blocks are looked up once, then the blocks
+    // are filtered against that short candidate list in a single pass.
+    public void removeClaimedBlocks(List<Block> blocks) {
+        long start = explosionProbe.start();
+        explosionProbe.stop(start, filterClaimedBlocks(blocks));
+    }
+
+    // Returns true if any block was removed
+    private boolean filterClaimedBlocks(List<Block> blocks) {
+        if (blocks.isEmpty()) {
+            return false;
+        }
+
+        Block first = blocks.get(0);
+        if (first.getWorld() == null) {
+            return false;
+        }
+        int minX = first.getX();
+        int maxX = minX;
+        int minZ = first.getZ();
+        int maxZ = minZ;
+        for (Block block : blocks) {
+            minX = Math.min(minX, block.getX());
+            maxX = Math.max(maxX, block.getX());
+            minZ = Math.min(minZ, block.getZ());
+            maxZ = Math.max(maxZ, block.getZ());
+        }
+
+        List<Claim> candidates = index.findInChunks(first.getWorld().getName(),
+                minX >> ClaimIndex.CHUNK_SHIFT, maxX >> ClaimIndex.CHUNK_SHIFT, minZ >> ClaimIndex.CHUNK_SHIFT, maxZ >> ClaimIndex.CHUNK_SHIFT);
+        // Claims that allow explosions don't protect anything, unless a subclaim of theirs does
+        candidates.removeIf(claim -> claim.hasFlag(Claim.EXPLOSIONS) && claim.getChildren().isEmpty());
+        if (candidates.isEmpty()) {
+            return false;
+        }
+
+        // The innermost claim around a block decides
+        return blocks.removeIf(block -> {
+            for (Claim claim : candidates) {
+                if (claim.contains(block.getX(), block.getY(), block.getZ())) {
+                    return !claim.innermost(block.getX(), block.getY(), block.getZ()).hasFlag(Claim.EXPLOSIONS);
                 }
             }
+            return false;
+        });
+    }
+
+    // Last block a tracked player was seen in, and the claim containing it
+    private static final class PlayerPosition {
+        private String worldName;
+        private int x;
+        private int y;
+        private int z;
+        private volatile Claim claim;
+    }
+
+    // Outcome of createClaim: the new claim, or the existing claim that prevented it
+    public static class CreateResult {
+        private final Claim claim;
+        private final Claim conflict;
+
+        CreateResult(Claim claim, Claim conflict) {
+            this.claim = claim;
+            this.conflict = conflict;
+        }
+
+        public boolean isSuccess() {
+            return claim != null;
+        }
+
+        // The created claim, or null if it overlapped an existing one
+        public Claim getClaim() {
+            return claim;
+        }
+
+        // The existing claim that overlaps the requested area, or null on success
+        public Claim getConflict() {
+            return conflict;
         }
-        return false;
     }
 
     // Inner class to represent a claim selection
     public static class ClaimSelection {
-        private Location firstCorner;
-        private Location secondCorner;
+        private volatile Location firstCorner;
+        private volatile Location secondCorner;
 
         // Add a location to the selection
         public void addLocation(Location location) {
@@ -109,70 +908,278 @@ public class ClaimManager {
         }
     }
 
-    // Inner class to represent a claim
+    // Inner class to represent a claim.
+    // Bounds are normalized to inclusive block coordinates once, when the claim is built,
+    // so containment checks are plain integer comparisons. Flags and the trust list can change
+    // (always through ClaimManager, under its write lock) and are published by replacing a
+    // volatile int and an immutable set, so rule checks on a lookup result never lock.
+    // A claim can hold subclaims (e.g. plots in a town) that lie completely inside it and don't
+    // overlap each other. Only top-level claims are in ClaimManager's index; each claim indexes
+    // its own subclaims per chunk, so finding the innermost claim takes one lookup per level.
     public static class Claim {
+        // Flags: what everyone may do in the claim. The owner and trusted players may always
+        // build and interact; PvP, mob damage and explosions apply to everyone.
+        public static final int BUILD = 1;
+        public static final int PVP = 1 << 1;
+        public static final int MOB_DAMAGE = 1 << 2;
+        public static final int EXPLOSIONS = 1 << 3;
+        public static final int INTERACT = 1 << 4;
+        // The rules every claim had before flags existed
+        public static final int DEFAULT_FLAGS = INTERACT;
+        // Flag names used in commands and claims.yml, indexed by bit
+        static final String[] FLAG_NAMES = {"build", "pvp", "mob-damage", "explosions", "interact"};
+        public static final int MAX_NAME_LENGTH = 32;
+        static final int MAX_WORLD_NAME_LENGTH = 255;
+
+        private final UUID owner;
         private final String name;
-        private final Location firstCorner;
-        private final Location secondCorner;
-        private final int heightLimit = 320; // Maximum Y-level (height limit)
-        private final int depthLimit = -64;  // Minimum Y-level (depth limit)
+        private final String worldName;
+        private final int minX;
+        private final int minY;
+        private final int minZ;
+        private final int maxX;
+        private final int maxY;
+        private final int maxZ;
+        private volatile int flags = DEFAULT_FLAGS;
+        private volatile Set<UUID> trusted = Collections.emptySet();
+        // Enclosing claim (null for a top-level claim), and the directly nested subclaims with
+        // their chunk index (null while there are none); both published copy-on-write
+        private volatile Claim parent;
+        private volatile List<Claim> children = Collections.emptyList();
+        private volatile ClaimIndex subclaims;
+        // Parent claim name as saved, until ClaimManager links the claim to its parent
+        private String parentName;
 
-        public Claim(String name, Location firstCorner, Location secondCorner) {
+        public Claim(UUID owner, String name, String worldName, int x1, int y1, int z1, int x2, int y2, int z2) {
+            this.owner = owner;
             this.name = name;
-            this.firstCorner = firstCorner;
-            this.secondCorner = secondCorner;
+            this.worldName = worldName;
+            this.minX = Math.min(x1, x2);
+            this.minY = Math.min(y1, y2);
+            this.minZ = Math.min(z1, z2);
+            this.maxX = Math.max(x1, x2);
+            this.maxY = Math.max(y1, y2);
+            this.maxZ = Math.max(z1, z2);
         }
 
-        // Check if a location is inside this claim
-        public boolean contains(Location location) {
-            if (!location.getWorld().equals(firstCorner.getWorld())) {
-                return false;
+        // Check if a block position in this claim's world is inside this claim
+        public boolean contains(int x, int y, int z) {
+            return x >= minX && x <= maxX &&
+                    y >= minY && y <= maxY &&
+                    z >= minZ && z <= maxZ;
+        }
+
+        // Squared horizontal distance from a block column to the nearest column of this claim
+        // (0 if the column is inside)
+        public long distanceSquared(int x, int z) {
+            long dx = Math.max(0, Math.max(minX - x, x - maxX));
+            long dz = Math.max(0, Math.max(minZ - z, z - maxZ));
+            return dx * dx + dz * dz;
+        }
+
+        // Check if this claim overlaps with another claim
+        public boolean overlaps(Claim other) {
+            return worldName.equals(other.worldName) &&
+                    minX <= other.maxX && maxX >= other.minX &&
+                    minY <= other.maxY && maxY >= other.minY &&
+                    minZ <= other.maxZ && maxZ >= other.minZ;
+        }
+
+        // Check if this claim's columns all lie inside another claim
+        public boolean isInside(Claim other) {
+            return worldName.equals(other.worldName) &&
+                    minX >= other.minX && maxX <= other.maxX &&
+                    minZ >= other.minZ && maxZ <= other.maxZ;
+        }
+
+        // The innermost claim containing a block position, starting from this claim, which must
+        // contain it
+        Claim innermost(int x, int y, int z) {
+            Claim claim = this;
+            ClaimIndex inner;
+            while ((inner = claim.subclaims) != null) {
+                Claim child = inner.find(worldName, x, y, z);
+                if (child == null) {
+                    break;
+                }
+                claim = child;
+            }
+            return claim;
+        }
+
+        // Check if any direct subclaim touches a chunk column
+        boolean hasSubclaimsIn(int chunkX, int chunkZ) {
+            ClaimIndex inner = subclaims;
+            return inner != null && inner.bucket(worldName, chunkX, chunkZ) != null;
+        }
+
+        // A direct subclaim overlapping the given area, or null
+        Claim findSubclaimOverlap(Claim other) {
+            ClaimIndex inner = subclaims;
+            return inner == null ? null : inner.findOverlap(other);
+        }
+
+        // Register and unregister direct subclaims (ClaimManager, under its write lock)
+        void addChild(Claim child) {
+            ClaimIndex inner = subclaims != null ? subclaims : new ClaimIndex();
+            inner.add(child);
+            List<Claim> grown = new ArrayList<>(children);
+            grown.add(child);
+            child.parent = this;
+            children = Collections.unmodifiableList(grown);
+            subclaims = inner;
+        }
+
+        void removeChild(Claim child) {
+            List<Claim> shrunk = new ArrayList<>(children);
+            if (!shrunk.remove(child)) {
+                return;
             }
+            subclaims.remove(child);
+            child.parent = null;
+            children = shrunk.isEmpty() ? Collections.<Claim>emptyList() : Collections.unmodifiableList(shrunk);
+            if (shrunk.isEmpty()) {
+                subclaims = null;
+            }
+        }
+
+        // Check if a flag is set, e.g. claim.hasFlag(Claim.PVP)
+        public boolean hasFlag(int flag) {
+            return (flags & flag) != 0;
+        }
+
+        // Check if a player may do what a flag governs: the owner and trusted players always may,
+        // anyone else only if the flag is set
+        public boolean permits(UUID playerId, int flag) {
+            return (flags & flag) != 0 || owner.equals(playerId) || trusted.contains(playerId);
+        }
+
+        // Check if a player is the owner or on the trust list
+        public boolean isTrusted(UUID playerId) {
+            return owner.equals(playerId) || trusted.contains(playerId);
+        }
+
+        public int getFlags() {
+            return flags;
+        }
+
+        // The claim this one is a subclaim of, or null
+        public Claim getParent() {
+            return parent;
+        }
+
+        // Direct subclaims (read-only)
+        public List<Claim> getChildren() {
+            return children;
+        }
+
+        // Name of the parent claim (same owner), or null for a top-level claim
+        String getParentName() {
+            Claim linked = parent;
+            return linked != null ? linked.name : parentName;
+        }
+
+        void setParentName(String parentName) {
+            this.parentName = parentName == null || parentName.isEmpty() ? null : parentName;
+        }
+
+        // Players trusted by the owner (read-only)
+        public Set<UUID> getTrusted() {
+            return trusted;
+        }
 
-            double minX = Math.min(firstCorner.getX(), secondCorner.getX());
-            double maxX = Math.max(firstCorner.getX(), secondCorner.getX());
-            double minY = depthLimit; // Extend claim to the depth limit
-            double maxY = heightLimit; // Extend claim to the height limit
-            double minZ = Math.min(firstCorner.getZ(), secondCorner.getZ());
-            double maxZ = Math.max(firstCorner.getZ(), secondCorner.getZ());
+        void setFlags(int flags) {
+            this.flags = flags;
+        }
+
+        void setTrusted(Collection<UUID> players) {
+            this.trusted = players.isEmpty() ? Collections.<UUID>emptySet() : Collections.unmodifiableSet(new HashSet<>(players));
+        }
 
-            return location.getX() >= minX && location.getX() <= maxX &&
-                    location.getY() >= minY && location.getY() <= maxY &&
-                    location.getZ() >= minZ && location.getZ() <= maxZ;
+        // Check a claim name for the storage formats: the journal separates fields with tabs, the
+        // YAML snapshot uses names as path keys (so no '.'), and the binary one stores short lengths
+        public static boolean isValidName(String name) {
+            if (name.isEmpty() || name.length() > MAX_NAME_LENGTH) {
+                return false;
+            }
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_' || c == '-')) {
+                    return false;
+                }
+            }
+            return true;
         }
 
-        // Check if this claim overlaps with another area
-        public boolean overlaps(Location corner1, Location corner2) {
-            if (!corner1.getWorld().equals(firstCorner.getWorld())) {
+        // Check a world name from outside the server (e.g. an import file) the same way; world
+        // names are only stored as values, so anything but control characters is allowed
+        public static boolean isValidWorldName(String worldName) {
+            if (worldName.isEmpty() || worldName.length() > MAX_WORLD_NAME_LENGTH) {
                 return false;
             }
+            for (int i = 0; i < worldName.length(); i++) {
+                if (Character.isISOControl(worldName.charAt(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Bit of a flag name (case-insensitive), or 0 if there is no such flag
+        public static int flagByName(String name) {
+            for (int i = 0; i < FLAG_NAMES.length; i++) {
+                if (FLAG_NAMES[i].equalsIgnoreCase(name)) {
+                    return 1 << i;
+                }
+            }
+            return 0;
+        }
 
-            double thisMinX = Math.min(firstCorner.getX(), secondCorner.getX());
-            double thisMaxX = Math.max(firstCorner.getX(), secondCorner.getX());
-            double thisMinY = depthLimit; // Extend claim to the depth limit
-            double thisMaxY = heightLimit; // Extend claim to the height limit
-            double thisMinZ = Math.min(firstCorner.getZ(), secondCorner.getZ());
-            double thisMaxZ = Math.max(firstCorner.getZ(), secondCorner.getZ());
+        // Names of the flags set in a bitmask
+        public static List<String> flagNames(int flags) {
+            List<String> names = new ArrayList<>();
+            for (int i = 0; i < FLAG_NAMES.length; i++) {
+                if ((flags & (1 << i)) != 0) {
+                    names.add(FLAG_NAMES[i]);
+                }
+            }
+            return names;
+        }
 
-            double otherMinX = Math.min(corner1.getX(), corner2.getX());
-            double otherMaxX = Math.max(corner1.getX(), corner2.getX());
-            double otherMinY = depthLimit; // Other claim also extends to the depth limit
-            double otherMaxY = heightLimit; // Other claim also extends to the height limit
-            double otherMinZ = Math.min(corner1.getZ(), corner2.getZ());
-            double otherMaxZ = Math.max(corner1.getZ(), corner2.getZ());
+        public UUID getOwner() {
+            return owner;
+        }
 
-            return thisMinX <= otherMaxX && thisMaxX >= otherMinX &&
-                    thisMinY <= otherMaxY && thisMaxY >= otherMinY &&
-                    thisMinZ <= otherMaxZ && thisMaxZ >= otherMinZ;
+        public String getName() {
+            return name;
         }
 
-        public Location getFirstCorner() {
-            return firstCorner;
+        public String getWorldName() {
+            return worldName;
         }
 
-        public Location getSecondCorner() {
-            return secondCorner;
+        public int getMinX() {
+            return minX;
+        }
+
+        public int getMinY() {
+            return minY;
+        }
+
+        public int getMinZ() {
+            return minZ;
+        }
+
+        public int getMaxX() {
+            return maxX;
+        }
+
+        public int getMaxY() {
+            return maxY;
+        }
+
+        public int getMaxZ() {
+            return maxZ;
         }
     }
 }
-
@@ -0,0 +1,82 @@
+package net.safeclaim;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+// Runs claim queries for /safeclaim list and /safeclaim find off the main thread.
+// Queries only read ClaimManager's concurrent maps and copy-on-write index buckets, without
+// taking the write lock. That iteration is only weakly consistent: a claim created, changed or
+// deleted while a query runs may or may not show up in its results as changed. Results are sorted
+// and formatted on the async thread too; only the finished page is sent on the main thread.
+public class ClaimSearch {
+    static final int PAGE_SIZE = 10;
+
+    private final Plugin plugin;
+    private final PerfMetrics.Probe queryProbe;
+
+    public ClaimSearch(Plugin plugin, PerfMetrics metrics) {
+        this.plugin = plugin;
+        this.queryProbe = metrics.probe("search.query");
+    }
+
+    // Run a query and send one page of its results, in the given order, to the player.
+    // command is what the player types to get another page, e.g. "/safeclaim find name home".
+    public void run(Player player, String title, String command, int page, Supplier<List<ClaimManager.Claim>> query,
+                    Comparator<ClaimManager.Claim> order) {
+        UUID playerId = player.getUniqueId();
+        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+            long start = queryProbe.start();
+            List<ClaimManager.Claim> results = query.get();
+            results.sort(order);
+            queryProbe.stop(start, !results.isEmpty());
+            List<String> lines = formatPage(title, command, page, results);
+
+            Bukkit.getScheduler().runTask(plugin, () -> {
+                Player online = Bukkit.getPlayer(playerId);
+                if (online != null) {
+                    for (String line : lines) {
+                        online.sendMessage(line);
+                    }
+                }
+            });
+        });
+    }
+
+    private static List<String> formatPage(String title, String command, int page, List<ClaimManager.Claim> results) {
+        List<String> lines = new ArrayList<>();
+        if (results.isEmpty()) {
+            lines.add(ChatColor.RED + "No claims found.");
+            return lines;
+        }
+
+        int pages = (results.size() + PAGE_SIZE - 1) / PAGE_SIZE;
+        int shown = Math.min(Math.max(1, page), pages);
+        lines.add(ChatColor.GOLD + title + " (" + results.size() + ", page " + shown + "/" + pages + "):");
+        for (ClaimManager.Claim claim : results.subList((shown - 1) * PAGE_SIZE, Math.min(results.size(), shown * PAGE_SIZE))) {
+            ClaimManager.Claim parent = claim.getParent();
+            lines.add(ChatColor.GREEN + "- " + claim.getName() + (parent != null ? " [in " + parent.getName() + "]" : "") +
+                    " (" + ownerName(claim.getOwner()) + ") in " + claim.getWorldName() + ": " +
+                    "(" + claim.getMinX() + ", " + claim.getMinY() + ", " + claim.getMinZ() + ") to " +
+                    "(" + claim.getMaxX() + ", " + claim.getMaxY() + ", " + claim.getMaxZ() + ")");
+        }
+        if (shown < pages) {
+            lines.add(ChatColor.GRAY + "Use " + command + " " + (shown + 1) + " for the next page.");
+        }
+        return lines;
+    }
+
+    // May read the server's user cache, which is why pages are formatted off the main thread
+    private static String ownerName(UUID owner) {
+        OfflinePlayer player = Bukkit.getOfflinePlayer(owner);
+        return player.getName() != null ? player.getName() : owner.toString();
+    }
+}
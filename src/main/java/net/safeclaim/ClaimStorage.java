@@ -0,0 +1,313 @@
+package net.safeclaim;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Persists claims as a snapshot (claims.yml or claims.dat) plus an append-only journal (claims.journal).
+// Every create/delete/change is appended to the journal on a background thread as soon as it happens,
+// so a crash loses nothing; the journal is periodically folded back into a fresh snapshot that
+// atomically replaces the old one. The main thread only ever enqueues work.
+public class ClaimStorage implements ClaimStore {
+    private static final String CREATE = "+";
+    private static final String DELETE = "-";
+    private static final String UPDATE = "*";
+
+    private final File dataFolder;
+    private final SnapshotFormat format;
+    private final File snapshotFile;
+    private final File journalFile;
+    private final Logger logger;
+    private final int compactAfterChanges;
+    private final long compactIntervalTicks;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "SafeClaim-Storage");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final PerfMetrics.Probe journalProbe;
+    private final PerfMetrics.Probe compactProbe;
+
+    private ClaimManager claimManager;
+    // Only touched from the storage thread
+    private Writer journal;
+    private int journalEntries;
+
+    public ClaimStorage(File dataFolder, SnapshotFormat format, Logger logger, int compactAfterChanges, int compactIntervalMinutes,
+                        PerfMetrics metrics) {
+        this.dataFolder = dataFolder;
+        this.format = format;
+        this.snapshotFile = new File(dataFolder, format.getFileName());
+        this.journalFile = new File(dataFolder, "claims.journal");
+        this.logger = logger;
+        this.compactAfterChanges = compactAfterChanges;
+        this.compactIntervalTicks = compactIntervalMinutes * 60L * 20L;
+        this.journalProbe = metrics.probe("storage.journal-write");
+        this.compactProbe = metrics.probe("storage.compact");
+    }
+
+    // Load the snapshot, replay the journal on top of it and start listening for changes.
+    // Runs once on startup, before any player can touch claims.
+    @Override
+    public void load(ClaimManager claimManager) {
+        this.claimManager = claimManager;
+        loadSnapshot();
+        journalEntries = replayJournal();
+        claimManager.setChangeListener(this);
+    }
+
+    @Override
+    public void claimCreated(UUID owner, ClaimManager.Claim claim) {
+        append(CREATE + "\t" + owner + "\t" + claim.getName() + "\t" + claim.getWorldName() + "\t" +
+                claim.getMinX() + "\t" + claim.getMinZ() + "\t" + claim.getMaxX() + "\t" + claim.getMaxZ() + "\t" +
+                claim.getFlags() + "\t" + joinTrusted(claim) + "\t" + parentName(claim));
+    }
+
+    @Override
+    public void claimDeleted(UUID owner, ClaimManager.Claim claim) {
+        append(DELETE + "\t" + owner + "\t" + claim.getName());
+    }
+
+    @Override
+    public void claimUpdated(UUID owner, ClaimManager.Claim claim) {
+        append(UPDATE + "\t" + owner + "\t" + claim.getName() + "\t" + claim.getFlags() + "\t" + joinTrusted(claim));
+    }
+
+    // A bulk import: write a new snapshot instead of journalling every claim
+    @Override
+    public void claimsReplaced(Collection<ClaimManager.Claim> added, Collection<ClaimManager.Claim> removed) {
+        executor.execute(this::compact);
+    }
+
+    // Fold the journal into a new snapshot every few minutes
+    @Override
+    public void schedule(Plugin plugin) {
+        Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, this::compactAsync, compactIntervalTicks, compactIntervalTicks);
+    }
+
+    // Fold the journal into a new snapshot in the background, if anything changed
+    public void compactAsync() {
+        executor.execute(() -> {
+            if (journalEntries > 0) {
+                compact();
+            }
+        });
+    }
+
+    // Drain pending writes and stop the storage thread (called from onDisable).
+    // Everything is already durable in the journal, so shutdown does not rewrite the snapshot.
+    @Override
+    public void close() {
+        executor.execute(this::closeJournal);
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                logger.severe("Timed out while writing pending claim changes to the journal.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void append(String line) {
+        executor.execute(() -> {
+            long start = journalProbe.start();
+            try {
+                if (journal == null) {
+                    journalFile.getParentFile().mkdirs();
+                    journal = new BufferedWriter(new OutputStreamWriter(
+                            new FileOutputStream(journalFile, true), StandardCharsets.UTF_8));
+                }
+                journal.write(line);
+                journal.write('\n');
+                journal.flush();
+                journalProbe.stop(start, true);
+                if (++journalEntries >= compactAfterChanges) {
+                    compact();
+                }
+            } catch (IOException e) {
+                journalProbe.stop(start, false);
+                logger.log(Level.SEVERE, "Failed to write claim change to journal", e);
+            }
+        });
+    }
+
+    // Write every claim to a temporary file, atomically swap it in and truncate the journal.
+    // Runs on the storage thread, which also owns the journal, so no entry can slip in between.
+    private void compact() {
+        long start = compactProbe.start();
+        if (!writeSnapshot()) {
+            compactProbe.stop(start, false);
+            return;
+        }
+
+        // Every journalled change is now part of the snapshot
+        closeJournal();
+        if (!journalFile.delete() && journalFile.exists()) {
+            logger.warning("Could not truncate " + journalFile.getName() + "; it will be replayed again on next start.");
+        }
+        journalEntries = 0;
+        compactProbe.stop(start, true);
+    }
+
+    private void closeJournal() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to close claim journal", e);
+        }
+        journal = null;
+    }
+
+    private boolean writeSnapshot() {
+        File tempFile = new File(snapshotFile.getPath() + ".tmp");
+        try {
+            format.write(tempFile, claimManager.getAllClaims());
+            replace(tempFile, snapshotFile);
+            return true;
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to save claims to " + snapshotFile.getName(), e);
+            return false;
+        }
+    }
+
+    private void loadSnapshot() {
+        if (!snapshotFile.exists()) {
+            convertSnapshot();
+            return;
+        }
+
+        try {
+            claimManager.restoreClaims(format.read(snapshotFile, claimManager));
+        } catch (IOException e) {
+            // Refuse to start with an empty claim set that would overwrite the file on compaction
+            throw new IllegalStateException("Failed to load claims from " + snapshotFile.getName(), e);
+        }
+    }
+
+    // One-time conversion when the configured format changed (e.g. claims.yml -> claims.dat):
+    // load the other snapshot, write it in the configured format and set the old file aside.
+    private void convertSnapshot() {
+        SnapshotFormat[] formats = {new YamlSnapshotFormat(), new BinarySnapshotFormat()};
+        for (SnapshotFormat other : formats) {
+            File otherFile = new File(dataFolder, other.getFileName());
+            if (other.getFileName().equals(format.getFileName()) || !otherFile.exists()) {
+                continue;
+            }
+
+            try {
+                claimManager.restoreClaims(other.read(otherFile, claimManager));
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to load claims from " + otherFile.getName(), e);
+            }
+            if (writeSnapshot() && otherFile.renameTo(new File(dataFolder, other.getFileName() + ".converted"))) {
+                logger.info("Converted " + otherFile.getName() + " to " + snapshotFile.getName() + ".");
+            }
+            return;
+        }
+    }
+
+    // Re-apply journalled changes in order. Entries overwrite, change or remove a claim by owner
+    // and name, so replaying entries that already made it into the snapshot is harmless.
+    private int replayJournal() {
+        if (!journalFile.exists()) {
+            return 0;
+        }
+
+        int entries = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(journalFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", -1);
+                try {
+                    if (parts[0].equals(CREATE) && parts.length == 11) {
+                        UUID owner = UUID.fromString(parts[1]);
+                        ClaimManager.Claim claim = claimManager.buildClaim(owner, parts[2], parts[3],
+                                Integer.parseInt(parts[4]), Integer.parseInt(parts[5]),
+                                Integer.parseInt(parts[6]), Integer.parseInt(parts[7]));
+                        claim.setParentName(parts[10]);
+                        claimManager.restoreClaim(claim);
+                        claimManager.restoreSettings(owner, parts[2], Integer.parseInt(parts[8]), splitTrusted(parts[9]));
+                    } else if (parts[0].equals(UPDATE) && parts.length == 5) {
+                        claimManager.restoreSettings(UUID.fromString(parts[1]), parts[2], Integer.parseInt(parts[3]), splitTrusted(parts[4]));
+                    } else if (parts[0].equals(DELETE) && parts.length == 3) {
+                        claimManager.deleteClaim(UUID.fromString(parts[1]), parts[2]);
+                    } else {
+                        // A torn final line from a crash mid-write; nothing after it was written
+                        logger.warning("Skipping malformed claim journal entry: " + line);
+                        continue;
+                    }
+                    entries++;
+                } catch (IllegalArgumentException e) {
+                    logger.warning("Skipping malformed claim journal entry: " + line);
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to read claim journal", e);
+        }
+        return entries;
+    }
+
+    // Name of the claim's parent, or "" for a top-level claim
+    static String parentName(ClaimManager.Claim claim) {
+        String parentName = claim.getParentName();
+        return parentName != null ? parentName : "";
+    }
+
+    // Trust list as comma-separated UUIDs (empty if nobody is trusted)
+    static String joinTrusted(ClaimManager.Claim claim) {
+        StringBuilder joined = new StringBuilder();
+        for (UUID player : claim.getTrusted()) {
+            if (joined.length() > 0) {
+                joined.append(',');
+            }
+            joined.append(player);
+        }
+        return joined.toString();
+    }
+
+    static List<UUID> splitTrusted(String joined) {
+        List<UUID> players = new ArrayList<>();
+        for (String player : joined.split(",")) {
+            if (!player.isEmpty()) {
+                players.add(UUID.fromString(player));
+            }
+        }
+        return players;
+    }
+
+    static void replace(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
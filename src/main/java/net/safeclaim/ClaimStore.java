@@ -0,0 +1,18 @@
+package net.safeclaim;
+
+import org.bukkit.plugin.Plugin;
+
+// Storage backend for claims: loads them on startup, then persists every change it is notified of
+// (see ClaimManager.ChangeListener). ClaimStorage keeps files in the plugin folder,
+// SqliteClaimStore a database that several servers can share.
+interface ClaimStore extends ClaimManager.ChangeListener {
+    // Load every claim into the manager and start listening for changes.
+    // Runs once on startup, before any player can touch claims.
+    void load(ClaimManager claimManager);
+
+    // Start the backend's periodic background work (compaction, polling for other servers' changes)
+    void schedule(Plugin plugin);
+
+    // Drain pending writes and stop background work (called from onDisable)
+    void close();
+}
@@ -0,0 +1,547 @@
+package net.safeclaim;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.plugin.Plugin;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Bulk import and export of claims for /safeclaim import and /safeclaim export, one claim per line
+// as CSV or, for files ending in .jsonl, as JSON objects:
+//
+//   owner,name,world,min_x,min_z,max_x,max_z,flags,trusted,parent
+//   {"owner":...,"name":...,"world":...,"min_x":...,"min_z":...,"max_x":...,"max_z":...,"flags":[...],"trusted":[...],"parent":...}
+//
+// where flags are flag names and trusted are player UUIDs (separated by ';' in CSV), and parent
+// names the owner's claim a subclaim lies in (all three may be left out). Files are streamed on a
+// background thread. An import is validated as a whole: the top-level claims of each world are
+// swept in order of min_x, so overlaps are found by comparing each claim to its neighbours along
+// x only; subclaims are checked against their parent and its other subclaims, so exports list
+// parents first. The result is applied with ClaimManager.replaceClaims, which swaps in new claim
+// maps and a new index at once instead of creating claims one by one.
+public class ClaimTransfer {
+    private static final String HEADER = "owner,name,world,min_x,min_z,max_x,max_z,flags,trusted,parent";
+    // Attempts to apply an import while players keep changing claims
+    private static final int SWAP_ATTEMPTS = 3;
+
+    private final Plugin plugin;
+    private final ClaimManager claimManager;
+    private final File folder;
+    private final Logger logger;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "SafeClaim-Transfer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean busy = new AtomicBoolean();
+    private final PerfMetrics.Probe importProbe;
+    private final PerfMetrics.Probe exportProbe;
+
+    public ClaimTransfer(Plugin plugin, ClaimManager claimManager, File folder, Logger logger, PerfMetrics metrics) {
+        this.plugin = plugin;
+        this.claimManager = claimManager;
+        this.folder = folder;
+        this.logger = logger;
+        this.importProbe = metrics.probe("transfer.import");
+        this.exportProbe = metrics.probe("transfer.export");
+    }
+
+    // Resolve a file name inside the transfers folder, or null if it points outside of it
+    public File resolve(String fileName) {
+        try {
+            File file = new File(folder, fileName).getCanonicalFile();
+            return file.toPath().startsWith(folder.getCanonicalFile().toPath()) ? file : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Import claims in the background, adding them to the existing claims or replacing all of
+    // them. Returns false if another import or export is still running.
+    public boolean importClaims(CommandSender sender, File file, boolean replace) {
+        if (!busy.compareAndSet(false, true)) {
+            return false;
+        }
+        executor.execute(() -> {
+            try {
+                long start = importProbe.start();
+                ImportResult result = new ImportResult();
+                List<ClaimManager.Claim> imported = read(file, result);
+                boolean applied = apply(imported, replace, result);
+                importProbe.stop(start, applied);
+                long millis = (System.nanoTime() - start) / 1_000_000;
+                reply(sender, applied ? ChatColor.GREEN + "Imported " + result.accepted + " claims from " + file.getName() + " in " + millis + " ms" +
+                        result.summary() + "." : ChatColor.RED + "Claims kept changing during the import; nothing was imported.");
+                if (result.firstError != null) {
+                    reply(sender, ChatColor.RED + "First skipped line: " + result.firstError);
+                }
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to import claims from " + file.getName(), e);
+                reply(sender, ChatColor.RED + "Could not read " + file.getName() + ": " + e.getMessage());
+            } finally {
+                busy.set(false);
+            }
+        });
+        return true;
+    }
+
+    // Export every claim in the background. Returns false if another import or export is running.
+    public boolean exportClaims(CommandSender sender, File file) {
+        if (!busy.compareAndSet(false, true)) {
+            return false;
+        }
+        executor.execute(() -> {
+            try {
+                long start = exportProbe.start();
+                List<ClaimManager.Claim> claims = claimManager.getAllClaims();
+                // Parents before their subclaims, so the file can be imported again
+                claims.sort(Comparator.comparingInt(ClaimTransfer::depth)
+                        .thenComparing((ClaimManager.Claim claim) -> claim.getOwner()).thenComparing(ClaimManager.Claim::getName));
+                write(file, claims);
+                exportProbe.stop(start, true);
+                reply(sender, ChatColor.GREEN + "Exported " + claims.size() + " claims to " + file.getName() + ".");
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to export claims to " + file.getName(), e);
+                reply(sender, ChatColor.RED + "Could not write " + file.getName() + ": " + e.getMessage());
+            } finally {
+                busy.set(false);
+            }
+        });
+        return true;
+    }
+
+    // Stop the transfer thread (called from onDisable); a running transfer is abandoned
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private void reply(CommandSender sender, String message) {
+        if (sender != null && !executor.isShutdown()) {
+            Bukkit.getScheduler().runTask(plugin, () -> sender.sendMessage(message));
+        }
+    }
+
+    private List<ClaimManager.Claim> read(File file, ImportResult result) throws IOException {
+        boolean json = isJson(file);
+        List<ClaimManager.Claim> claims = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty() || !json && line.startsWith("owner,")) {
+                    continue;
+                }
+                try {
+                    claims.add(json ? parseJson(line) : parseCsv(line));
+                } catch (IllegalArgumentException | IllegalStateException | UnsupportedOperationException | JsonParseException e) {
+                    result.malformed++;
+                    if (result.firstError == null) {
+                        result.firstError = lineNumber + " (" + e.getMessage() + ")";
+                    }
+                }
+            }
+        }
+        return claims;
+    }
+
+    // Validate the imported claims against the claims they will join and swap the result in,
+    // starting over if claims changed in the meantime
+    private boolean apply(List<ClaimManager.Claim> imported, boolean replace, ImportResult result) {
+        for (int attempt = 0; attempt < SWAP_ATTEMPTS; attempt++) {
+            long version = claimManager.getVersion();
+            List<ClaimManager.Claim> existing = replace ? new ArrayList<>() : claimManager.getAllClaims();
+            result.resetCounts();
+            List<ClaimManager.Claim> accepted = validate(existing, imported, result);
+            result.accepted = accepted.size();
+            existing.addAll(accepted);
+            if (claimManager.replaceClaims(existing, version)) {
+                logger.info("Imported " + result.accepted + " claims" + result.summary() + (replace ? ", replacing all claims." : "."));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The imported claims that can be added: not named like an existing claim or an earlier line
+    // of the same owner, and overlapping neither an existing claim nor an imported claim that
+    // comes before them in the sweep. Subclaims must lie inside their parent, an existing claim
+    // or an earlier accepted line, without overlapping its other subclaims.
+    private static List<ClaimManager.Claim> validate(List<ClaimManager.Claim> existing, List<ClaimManager.Claim> imported,
+                                                     ImportResult result) {
+        Set<String> names = new HashSet<>();
+        Map<String, List<Entry>> worlds = new HashMap<>();
+        for (ClaimManager.Claim claim : existing) {
+            names.add(claim.getOwner() + "\t" + claim.getName());
+            // Subclaims lie inside their parents, which are swept anyway
+            if (claim.getParent() == null) {
+                worlds.computeIfAbsent(claim.getWorldName(), k -> new ArrayList<>()).add(new Entry(claim, true));
+            }
+        }
+        List<ClaimManager.Claim> nested = new ArrayList<>();
+        for (ClaimManager.Claim claim : imported) {
+            if (!names.add(claim.getOwner() + "\t" + claim.getName())) {
+                result.duplicates++;
+            } else if (claim.getParentName() != null) {
+                nested.add(claim);
+            } else {
+                worlds.computeIfAbsent(claim.getWorldName(), k -> new ArrayList<>()).add(new Entry(claim, false));
+            }
+        }
+
+        List<ClaimManager.Claim> accepted = new ArrayList<>();
+        List<Entry> active = new ArrayList<>();
+        for (List<Entry> world : worlds.values()) {
+            world.sort(Comparator.comparingInt(entry -> entry.claim.getMinX()));
+
+            // First pass: imported claims overlapping existing ones
+            active.clear();
+            for (Entry entry : world) {
+                retire(active, entry.claim.getMinX());
+                for (Entry other : active) {
+                    if (other.existing != entry.existing && other.claim.overlaps(entry.claim)) {
+                        (entry.existing ? other : entry).rejected = true;
+                    }
+                }
+                active.add(entry);
+            }
+
+            // Second pass: imported claims overlapping one accepted before them
+            active.clear();
+            for (Entry entry : world) {
+                if (entry.existing) {
+                    continue;
+                }
+                retire(active, entry.claim.getMinX());
+                if (!entry.rejected) {
+                    for (Entry other : active) {
+                        if (other.claim.overlaps(entry.claim)) {
+                            entry.rejected = true;
+                            break;
+                        }
+                    }
+                }
+                if (entry.rejected) {
+                    result.overlapping++;
+                } else {
+                    active.add(entry);
+                    accepted.add(entry.claim);
+                }
+            }
+        }
+
+        if (!nested.isEmpty()) {
+            acceptSubclaims(existing, nested, accepted, result);
+        }
+        return accepted;
+    }
+
+    // Check the imported subclaims in file order, against their parents and the parents' other
+    // subclaims, adding those that fit to the accepted claims
+    private static void acceptSubclaims(List<ClaimManager.Claim> existing, List<ClaimManager.Claim> nested,
+                                        List<ClaimManager.Claim> accepted, ImportResult result) {
+        Map<String, ClaimManager.Claim> parents = new HashMap<>();
+        for (ClaimManager.Claim claim : existing) {
+            parents.put(claim.getOwner() + "\t" + claim.getName(), claim);
+        }
+        for (ClaimManager.Claim claim : accepted) {
+            parents.put(claim.getOwner() + "\t" + claim.getName(), claim);
+        }
+        // Subclaims accepted so far per parent, in addition to the parent's current ones
+        Map<ClaimManager.Claim, List<ClaimManager.Claim>> importedChildren = new IdentityHashMap<>();
+        for (ClaimManager.Claim claim : nested) {
+            ClaimManager.Claim parent = parents.get(claim.getOwner() + "\t" + claim.getParentName());
+            if (parent == null) {
+                result.orphaned++;
+                continue;
+            }
+            List<ClaimManager.Claim> siblings = importedChildren.computeIfAbsent(parent, k -> new ArrayList<>());
+            if (!claim.isInside(parent) || overlapsAny(claim, parent.getChildren()) || overlapsAny(claim, siblings)) {
+                result.overlapping++;
+                continue;
+            }
+            siblings.add(claim);
+            accepted.add(claim);
+            parents.put(claim.getOwner() + "\t" + claim.getName(), claim);
+        }
+    }
+
+    private static boolean overlapsAny(ClaimManager.Claim claim, List<ClaimManager.Claim> others) {
+        for (ClaimManager.Claim other : others) {
+            if (other.overlaps(claim)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Nesting level of a claim, 0 for a top-level claim
+    private static int depth(ClaimManager.Claim claim) {
+        int depth = 0;
+        for (ClaimManager.Claim parent = claim.getParent(); parent != null; parent = parent.getParent()) {
+            depth++;
+        }
+        return depth;
+    }
+
+    // Drop the claims the sweep has passed: they end before sweepX, and so do all later claims' overlaps
+    private static void retire(List<Entry> active, int sweepX) {
+        active.removeIf(entry -> entry.claim.getMaxX() < sweepX);
+    }
+
+    private void write(File file, Collection<ClaimManager.Claim> claims) throws IOException {
+        boolean json = isJson(file);
+        folder.mkdirs();
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8))) {
+            if (!json) {
+                writer.write(HEADER);
+                writer.write('\n');
+            }
+            for (ClaimManager.Claim claim : claims) {
+                writer.write(json ? toJson(claim) : toCsv(claim));
+                writer.write('\n');
+            }
+        }
+        ClaimStorage.replace(tempFile, file);
+    }
+
+    private static boolean isJson(File file) {
+        return file.getName().toLowerCase().endsWith(".jsonl");
+    }
+
+    private ClaimManager.Claim parseCsv(String line) {
+        List<String> fields = splitCsv(line);
+        if (fields.size() < 7 || fields.size() > 10) {
+            throw new IllegalArgumentException("expected 7 to 10 fields, got " + fields.size());
+        }
+        ClaimManager.Claim claim = claimManager.buildClaim(UUID.fromString(fields.get(0)), requireName(fields.get(1)), requireWorldName(fields.get(2)),
+                Integer.parseInt(fields.get(3).trim()), Integer.parseInt(fields.get(4).trim()),
+                Integer.parseInt(fields.get(5).trim()), Integer.parseInt(fields.get(6).trim()));
+        if (fields.size() > 7 && !fields.get(7).isEmpty()) {
+            claim.setFlags(parseFlags(fields.get(7).split(";")));
+        }
+        if (fields.size() > 8) {
+            List<UUID> trusted = new ArrayList<>();
+            for (String player : fields.get(8).split(";")) {
+                if (!player.isEmpty()) {
+                    trusted.add(UUID.fromString(player));
+                }
+            }
+            claim.setTrusted(trusted);
+        }
+        if (fields.size() > 9 && !fields.get(9).isEmpty()) {
+            claim.setParentName(requireName(fields.get(9)));
+        }
+        return claim;
+    }
+
+    private ClaimManager.Claim parseJson(String line) {
+        JsonObject object = JsonParser.parseString(line).getAsJsonObject();
+        ClaimManager.Claim claim = claimManager.buildClaim(UUID.fromString(member(object, "owner").getAsString()),
+                requireName(member(object, "name").getAsString()), requireWorldName(member(object, "world").getAsString()),
+                member(object, "min_x").getAsInt(), member(object, "min_z").getAsInt(),
+                member(object, "max_x").getAsInt(), member(object, "max_z").getAsInt());
+        if (object.has("flags")) {
+            List<String> flags = new ArrayList<>();
+            for (JsonElement flag : member(object, "flags").getAsJsonArray()) {
+                flags.add(flag.getAsString());
+            }
+            claim.setFlags(parseFlags(flags.toArray(new String[0])));
+        }
+        if (object.has("trusted")) {
+            List<UUID> trusted = new ArrayList<>();
+            for (JsonElement player : member(object, "trusted").getAsJsonArray()) {
+                trusted.add(UUID.fromString(player.getAsString()));
+            }
+            claim.setTrusted(trusted);
+        }
+        if (object.has("parent") && !object.get("parent").isJsonNull()) {
+            claim.setParentName(requireName(object.get("parent").getAsString()));
+        }
+        return claim;
+    }
+
+    private static JsonElement member(JsonObject object, String name) {
+        JsonElement element = object.get(name);
+        if (element == null || element.isJsonNull()) {
+            throw new IllegalArgumentException("missing " + name);
+        }
+        return element;
+    }
+
+    // Claim names follow the same rules as names given in commands
+    private static String requireName(String name) {
+        if (!ClaimManager.Claim.isValidName(name)) {
+            throw new IllegalArgumentException("invalid name '" + abbreviate(name) + "'");
+        }
+        return name;
+    }
+
+    private static String requireWorldName(String worldName) {
+        if (!ClaimManager.Claim.isValidWorldName(worldName)) {
+            throw new IllegalArgumentException("invalid world name '" + abbreviate(worldName) + "'");
+        }
+        return worldName;
+    }
+
+    private static String abbreviate(String value) {
+        return value.length() > 40 ? value.substring(0, 40) + "..." : value;
+    }
+
+    private static int parseFlags(String[] names) {
+        int flags = 0;
+        for (String name : names) {
+            int flag = ClaimManager.Claim.flagByName(name.trim());
+            if (flag == 0) {
+                throw new IllegalArgumentException("unknown flag " + name);
+            }
+            flags |= flag;
+        }
+        return flags;
+    }
+
+    private static String toCsv(ClaimManager.Claim claim) {
+        List<String> trusted = new ArrayList<>();
+        for (UUID player : claim.getTrusted()) {
+            trusted.add(player.toString());
+        }
+        return claim.getOwner() + "," + quoteCsv(claim.getName()) + "," + quoteCsv(claim.getWorldName()) + "," +
+                claim.getMinX() + "," + claim.getMinZ() + "," + claim.getMaxX() + "," + claim.getMaxZ() + "," +
+                String.join(";", ClaimManager.Claim.flagNames(claim.getFlags())) + "," + String.join(";", trusted) + "," +
+                quoteCsv(ClaimStorage.parentName(claim));
+    }
+
+    private static String toJson(ClaimManager.Claim claim) {
+        JsonObject object = new JsonObject();
+        object.addProperty("owner", claim.getOwner().toString());
+        object.addProperty("name", claim.getName());
+        object.addProperty("world", claim.getWorldName());
+        object.addProperty("min_x", claim.getMinX());
+        object.addProperty("min_z", claim.getMinZ());
+        object.addProperty("max_x", claim.getMaxX());
+        object.addProperty("max_z", claim.getMaxZ());
+        JsonArray flags = new JsonArray();
+        for (String flag : ClaimManager.Claim.flagNames(claim.getFlags())) {
+            flags.add(flag);
+        }
+        object.add("flags", flags);
+        JsonArray trusted = new JsonArray();
+        for (UUID player : claim.getTrusted()) {
+            trusted.add(player.toString());
+        }
+        object.add("trusted", trusted);
+        String parentName = claim.getParentName();
+        if (parentName != null) {
+            object.addProperty("parent", parentName);
+        }
+        return object.toString();
+    }
+
+    // Quote a CSV field if it contains a separator or quote
+    private static String quoteCsv(String field) {
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0) {
+            return field;
+        }
+        return "\"" + field.replace("\"", "\"\"") + "\"";
+    }
+
+    private static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("unterminated quote");
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    // A claim in the overlap sweep
+    private static final class Entry {
+        final ClaimManager.Claim claim;
+        final boolean existing;
+        boolean rejected;
+
+        Entry(ClaimManager.Claim claim, boolean existing) {
+            this.claim = claim;
+            this.existing = existing;
+        }
+    }
+
+    // What happened to the lines of an import file
+    private static final class ImportResult {
+        int accepted;
+        int malformed;
+        int duplicates;
+        int overlapping;
+        // Subclaims whose parent is neither an existing claim nor an accepted line
+        int orphaned;
+        String firstError;
+
+        // Validation counts start over with every attempt to apply the import
+        void resetCounts() {
+            duplicates = 0;
+            overlapping = 0;
+            orphaned = 0;
+        }
+
+        String summary() {
+            if (malformed == 0 && duplicates == 0 && overlapping == 0 && orphaned == 0) {
+                return "";
+            }
+            return " (skipped " + malformed + " malformed, " + duplicates + " duplicate, " + overlapping + " overlapping and " +
+                    orphaned + " without a parent claim)";
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package net.safeclaim;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.Particle;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+// Draws claim outlines with particles, spread over several ticks.
+// Only the rectangle around the claim is drawn (at the viewer's eye level) plus the four corner
+// pillars, clipped to the viewer's view distance. All viewers share a fixed particle budget per
+// tick, and the outline is redrawn every second or so until the display expires.
+public class ClaimVisualizer implements Runnable {
+    private static final int PASS_INTERVAL_TICKS = 20;
+    private static final int PILLAR_HEIGHT = 4;
+
+    private final Plugin plugin;
+    private final int particlesPerTick;
+    private final int durationTicks;
+    // Viewers in round-robin order: whoever was drawn for moves to the back (main thread only)
+    private final Map<UUID, Outline> viewers = new LinkedHashMap<>();
+    private BukkitTask task;
+    private long tick;
+
+    public ClaimVisualizer(Plugin plugin, int particlesPerTick, int durationTicks) {
+        this.plugin = plugin;
+        this.particlesPerTick = Math.max(1, particlesPerTick);
+        this.durationTicks = durationTicks;
+    }
+
+    // Show a claim to a player, replacing whatever they were being shown
+    public void show(Player player, ClaimManager.Claim claim) {
+        viewers.put(player.getUniqueId(), new Outline(claim, tick + durationTicks));
+        if (task == null) {
+            task = Bukkit.getScheduler().runTaskTimer(plugin, this, 1, 1);
+        }
+    }
+
+    // Stop every running display (called from onDisable)
+    public void stop() {
+        viewers.clear();
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        tick++;
+        int budget = particlesPerTick;
+        int share = Math.max(1, budget / Math.max(1, viewers.size()));
+
+        List<UUID> served = new ArrayList<>();
+        Iterator<Map.Entry<UUID, Outline>> iterator = viewers.entrySet().iterator();
+        while (iterator.hasNext() && budget > 0) {
+            Map.Entry<UUID, Outline> entry = iterator.next();
+            Outline outline = entry.getValue();
+            Player player = Bukkit.getPlayer(entry.getKey());
+            if (player == null || tick > outline.expiresAt ||
+                    !player.getWorld().getName().equals(outline.claim.getWorldName())) {
+                iterator.remove();
+                continue;
+            }
+
+            if (outline.cursor >= outline.count) {
+                if (tick < outline.nextPass) {
+                    continue;
+                }
+                outline.plan(player.getLocation(), Bukkit.getViewDistance() * 16);
+                outline.nextPass = tick + PASS_INTERVAL_TICKS;
+            }
+            budget -= outline.draw(player, Math.min(share, budget));
+            served.add(entry.getKey());
+        }
+        // With more viewers than particles per tick, the next tick starts with those left out
+        for (UUID viewer : served) {
+            viewers.put(viewer, viewers.remove(viewer));
+        }
+
+        if (viewers.isEmpty()) {
+            stop();
+        }
+    }
+
+    // The points of one claim outline for one viewer, recomputed at the start of every pass
+    private static final class Outline {
+        private final ClaimManager.Claim claim;
+        private final long expiresAt;
+        private long nextPass;
+        // Flattened x, y, z triples of the current pass
+        private double[] points = new double[0];
+        private int count;
+        private int cursor;
+
+        private Outline(ClaimManager.Claim claim, long expiresAt) {
+            this.claim = claim;
+            this.expiresAt = expiresAt;
+        }
+
+        // Lay out the outline around the viewer, keeping only what lies within the view radius
+        private void plan(Location viewer, int radius) {
+            double minX = claim.getMinX();
+            double maxX = claim.getMaxX() + 1;
+            double minZ = claim.getMinZ();
+            double maxZ = claim.getMaxZ() + 1;
+            double y = Math.max(claim.getMinY(), Math.min(claim.getMaxY() + 1, viewer.getBlockY() + 1));
+            double fromX = Math.max(minX, viewer.getX() - radius);
+            double toX = Math.min(maxX, viewer.getX() + radius);
+            double fromZ = Math.max(minZ, viewer.getZ() - radius);
+            double toZ = Math.min(maxZ, viewer.getZ() + radius);
+
+            int capacity = 2 * (Math.max(0, (int) (toX - fromX)) + Math.max(0, (int) (toZ - fromZ)) + 2) + 4 * (PILLAR_HEIGHT * 2 + 1);
+            if (points.length < capacity * 3) {
+                points = new double[capacity * 3];
+            }
+            count = 0;
+            cursor = 0;
+
+            // Edges along X at both Z sides, then along Z at both X sides
+            for (double x = fromX; x <= toX; x++) {
+                addIfVisible(x, y, minZ, viewer, radius);
+                addIfVisible(x, y, maxZ, viewer, radius);
+            }
+            for (double z = fromZ; z <= toZ; z++) {
+                addIfVisible(minX, y, z, viewer, radius);
+                addIfVisible(maxX, y, z, viewer, radius);
+            }
+
+            // Corner pillars around the viewer's height
+            double pillarFrom = Math.max(claim.getMinY(), y - PILLAR_HEIGHT);
+            double pillarTo = Math.min(claim.getMaxY() + 1, y + PILLAR_HEIGHT);
+            for (double py = pillarFrom; py <= pillarTo; py++) {
+                addIfVisible(minX, py, minZ, viewer, radius);
+                addIfVisible(minX, py, maxZ, viewer, radius);
+                addIfVisible(maxX, py, minZ, viewer, radius);
+                addIfVisible(maxX, py, maxZ, viewer, radius);
+            }
+        }
+
+        private void addIfVisible(double x, double y, double z, Location viewer, int radius) {
+            if (Math.abs(x - viewer.getX()) > radius || Math.abs(z - viewer.getZ()) > radius || count * 3 >= points.length) {
+                return;
+            }
+            points[count * 3] = x;
+            points[count * 3 + 1] = y;
+            points[count * 3 + 2] = z;
+            count++;
+        }
+
+        // Send up to limit particles of the current pass; returns how many were sent
+        private int draw(Player player, int limit) {
+            int sent = 0;
+            while (cursor < count && sent < limit) {
+                player.spawnParticle(Particle.VILLAGER_HAPPY, points[cursor * 3], points[cursor * 3 + 1], points[cursor * 3 + 2], 1);
+                cursor++;
+                sent++;
+            }
+            return sent;
+        }
+    }
+}
@@ -3,39 +3,132 @@ package net.safeclaim;
 import org.bukkit.*;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
-import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.entity.Player;
 import org.bukkit.event.Listener;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.persistence.PersistentDataType;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import java.io.File;
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
 public final class Main extends JavaPlugin implements Listener {
 
+    // Marks an item as the claim tool; the namespace matches what NamespacedKey(plugin, ...) would use
+    private static final NamespacedKey CLAIM_TOOL_KEY = NamespacedKey.fromString("safeclaim:claim_tool");
+    // The claim tool as it was created before it carried the marker
+    private static final ItemStack LEGACY_CLAIM_TOOL = createLegacyClaimTool();
+    // Radius of /safeclaim find near, in blocks
+    private static final int NEAR_RADIUS = 128;
+    private static final Comparator<ClaimManager.Claim> BY_NAME = Comparator.comparing(ClaimManager.Claim::getName, String.CASE_INSENSITIVE_ORDER);
+
     private ClaimManager claimManager;
-    private File claimsFile;
+    private ClaimStore claimStore;
+    private ClaimVisualizer visualizer;
+    private ClaimListener claimListener;
+    private BlockPhysicsListener physicsListener;
+    private PerfMetrics metrics;
+    private ClaimSearch search;
+    private ClaimExpiry expiry;
+    private ClaimTransfer transfer;
 
     @Override
     public void onEnable() {
-        claimManager = new ClaimManager();
-        claimsFile = new File(getDataFolder(), "claims.yml");
+        saveDefaultConfig();
+        metrics = new PerfMetrics(getConfig().getBoolean("perf.enabled", true));
+        claimManager = new ClaimManager(metrics);
+        SnapshotFormat format = getConfig().getString("storage.format", "yaml").equalsIgnoreCase("binary")
+                ? new BinarySnapshotFormat() : new YamlSnapshotFormat();
+        boolean sharedStore = getConfig().getString("storage.backend", "file").equalsIgnoreCase("sqlite");
+        if (sharedStore) {
+            File databaseFile = new File(getConfig().getString("storage.sqlite.file", "claims.db"));
+            claimStore = new SqliteClaimStore(getDataFolder(), databaseFile.isAbsolute() ? databaseFile : new File(getDataFolder(), databaseFile.getPath()),
+                    format, getLogger(), getConfig().getInt("storage.sqlite.poll-interval-ticks", 20), metrics);
+        } else {
+            claimStore = new ClaimStorage(getDataFolder(), format, getLogger(), getConfig().getInt("storage.compact-after-changes", 500),
+                    getConfig().getInt("storage.compact-interval-minutes", 5), metrics);
+        }
+
+        // Apply the configured claim height limits before any claim is built
+        loadHeightLimits();
+
+        // Only index claims of loaded worlds; other worlds are indexed when they load
+        List<String> loadedWorlds = new ArrayList<>();
+        for (World world : Bukkit.getWorlds()) {
+            loadedWorlds.add(world.getName());
+        }
+        claimManager.bindWorlds(loadedWorlds);
+        Bukkit.getPluginManager().registerEvents(new WorldBindingListener(claimManager), this);
+
+        // Load claims; from here on every change is persisted in the background
+        claimStore.load(claimManager);
+        claimStore.schedule(this);
 
-        // Load claims from file
-        loadClaims();
+        search = new ClaimSearch(this, metrics);
+        // A folder of its own, so an export can never overwrite the claim store or config.yml
+        transfer = new ClaimTransfer(this, claimManager, new File(getDataFolder(), "transfers"), getLogger(), metrics);
+        visualizer = new ClaimVisualizer(this, getConfig().getInt("visualization.particles-per-tick", 200),
+                getConfig().getInt("visualization.duration-seconds", 10) * 20);
 
-        Bukkit.getPluginManager().registerEvents(new ClaimListener(this, claimManager), this);
+        claimListener = new ClaimListener(claimManager, metrics, Main::isClaimTool);
+        Bukkit.getPluginManager().registerEvents(claimListener, this);
+        physicsListener = new BlockPhysicsListener(claimManager, metrics);
+        Bukkit.getPluginManager().registerEvents(physicsListener, this);
+        PlayerClaimTracker tracker = new PlayerClaimTracker(claimManager);
+        Bukkit.getPluginManager().registerEvents(tracker, this);
+        Bukkit.getScheduler().runTaskTimer(this, tracker, 20, 20);
+        // Pick up players already online after a reload
+        tracker.run();
+
+        // Last-seen times only cover this server, so with a shared database a player active on
+        // another server would look inactive here, and the deletions would reach every server
+        if (sharedStore) {
+            if (getConfig().getBoolean("expiry.enabled", false)) {
+                getLogger().warning("Claim expiry is disabled: it cannot tell when players were last seen on the other servers sharing " +
+                        "the SQLite database.");
+            }
+        } else {
+            expiry = new ClaimExpiry(this, claimManager, getConfig().getInt("expiry.inactive-days", 90),
+                    getConfig().getInt("expiry.deletions-per-tick", 5), new File(getDataFolder(), "expiry.log"), getLogger(), metrics);
+            Bukkit.getPluginManager().registerEvents(expiry, this);
+        }
+        if (expiry != null && getConfig().getBoolean("expiry.enabled", false)) {
+            long expiryInterval = getConfig().getLong("expiry.interval-hours", 6) * 60 * 60 * 20;
+            boolean dryRun = getConfig().getBoolean("expiry.dry-run", false);
+            Bukkit.getScheduler().runTaskTimer(this, () -> expiry.sweep(null, dryRun), 20 * 60, expiryInterval);
+        }
+
+        if (getConfig().getBoolean("perf.csv.enabled", false)) {
+            long csvInterval = getConfig().getLong("perf.csv.interval-seconds", 60) * 20;
+            PerfCsvWriter csvWriter = new PerfCsvWriter(metrics, new File(getDataFolder(), "perf.csv"),
+                    getConfig().getLong("perf.csv.max-size-kb", 1024) * 1024, getLogger());
+            Bukkit.getScheduler().runTaskTimerAsynchronously(this, csvWriter, csvInterval, csvInterval);
+        }
         getLogger().info("SafeClaim has been enabled!");
     }
 
     @Override
     public void onDisable() {
-        // Save claims to file
-        saveClaims();
+        // onEnable may have failed part way, leaving later components unset
+        if (visualizer != null) {
+            visualizer.stop();
+        }
+        if (expiry != null) {
+            expiry.close();
+        }
+        if (transfer != null) {
+            transfer.close();
+        }
+        // Flush pending changes to storage
+        if (claimStore != null) {
+            claimStore.close();
+        }
         getLogger().info("SafeClaim has been disabled!");
     }
 
@@ -69,8 +162,12 @@ public final class Main extends JavaPlugin implements Listener {
                 }
 
                 String name = args[1];
-                if (claimManager.deleteClaim(player.getUniqueId(), name)) {
-                    player.sendMessage(ChatColor.GREEN + "Claim '" + name + "' has been deleted.");
+                // Read before deleting; deletion unlinks the subclaims
+                ClaimManager.Claim claim = claimManager.getClaim(player.getUniqueId(), name);
+                boolean hadSubclaims = claim != null && !claim.getChildren().isEmpty();
+                if (claim != null && claimManager.deleteClaim(player.getUniqueId(), name)) {
+                    player.sendMessage(ChatColor.GREEN + "Claim '" + name + "' has been deleted" +
+                            (hadSubclaims ? ", together with its subclaims." : "."));
                 } else {
                     player.sendMessage(ChatColor.RED + "Could not find a claim with the name '" + name + "'.");
                 }
@@ -78,21 +175,242 @@ public final class Main extends JavaPlugin implements Listener {
             }
 
             if (args[0].equalsIgnoreCase("list")) {
-                Map<String, ClaimManager.Claim> playerClaims = claimManager.getPlayerClaims(player.getUniqueId());
-                if (playerClaims == null || playerClaims.isEmpty()) {
-                    player.sendMessage(ChatColor.RED + "You have no claims.");
+                Integer page = parsePage(args, 1);
+                if (page == null) {
+                    player.sendMessage(ChatColor.RED + "Usage: /safeclaim list [page]");
+                    return true;
+                }
+
+                UUID playerId = player.getUniqueId();
+                search.run(player, "Your Claims", "/safeclaim list", page, () -> {
+                    Map<String, ClaimManager.Claim> playerClaims = claimManager.getPlayerClaims(playerId);
+                    return playerClaims == null ? new ArrayList<>() : new ArrayList<>(playerClaims.values());
+                }, BY_NAME);
+                return true;
+            }
+
+            if (args[0].equalsIgnoreCase("find")) {
+                String usage = "Usage: /safeclaim find <near|radius <blocks>|owner <player>|name <prefix>> [page]";
+                if (args.length < 2) {
+                    player.sendMessage(ChatColor.RED + usage);
+                    return true;
+                }
+
+                String type = args[1].toLowerCase();
+                Location location = player.getLocation();
+                String worldName = location.getWorld().getName();
+                int x = location.getBlockX();
+                int z = location.getBlockZ();
+                Comparator<ClaimManager.Claim> byDistance = Comparator.<ClaimManager.Claim>comparingLong(claim -> claim.distanceSquared(x, z)).thenComparing(BY_NAME);
+                if (type.equals("near")) {
+                    Integer page = parsePage(args, 2);
+                    if (page == null) {
+                        player.sendMessage(ChatColor.RED + usage);
+                        return true;
+                    }
+                    search.run(player, "Claims within " + NEAR_RADIUS + " blocks", "/safeclaim find near", page,
+                            () -> claimManager.findClaimsNear(worldName, x, z, NEAR_RADIUS), byDistance);
                     return true;
                 }
 
-                player.sendMessage(ChatColor.GOLD + "Your Claims:");
-                for (Map.Entry<String, ClaimManager.Claim> entry : playerClaims.entrySet()) {
-                    String claimName = entry.getKey();
-                    ClaimManager.Claim claim = entry.getValue();
-                    Location corner1 = claim.getFirstCorner();
-                    Location corner2 = claim.getSecondCorner();
-                    player.sendMessage(ChatColor.GREEN + "- " + claimName + ": " +
-                            "(" + corner1.getBlockX() + ", " + corner1.getBlockY() + ", " + corner1.getBlockZ() + ") to " +
-                            "(" + corner2.getBlockX() + ", " + corner2.getBlockY() + ", " + corner2.getBlockZ() + ")");
+                Integer page = parsePage(args, 3);
+                if (args.length < 3 || page == null) {
+                    player.sendMessage(ChatColor.RED + usage);
+                    return true;
+                }
+                String argument = args[2];
+                String pageCommand = "/safeclaim find " + type + " " + argument;
+                if (type.equals("radius")) {
+                    int radius;
+                    try {
+                        radius = Integer.parseInt(argument);
+                    } catch (NumberFormatException e) {
+                        radius = -1;
+                    }
+                    if (radius < 0) {
+                        player.sendMessage(ChatColor.RED + usage);
+                        return true;
+                    }
+                    int searchRadius = radius;
+                    search.run(player, "Claims within " + radius + " blocks", pageCommand, page,
+                            () -> claimManager.findClaimsNear(worldName, x, z, searchRadius), byDistance);
+                } else if (type.equals("owner")) {
+                    search.run(player, "Claims of " + argument, pageCommand, page, () -> {
+                        OfflinePlayer owner = findPlayer(argument);
+                        Map<String, ClaimManager.Claim> ownerClaims = owner == null ? null : claimManager.getPlayerClaims(owner.getUniqueId());
+                        return ownerClaims == null ? new ArrayList<>() : new ArrayList<>(ownerClaims.values());
+                    }, BY_NAME);
+                } else if (type.equals("name")) {
+                    search.run(player, "Claims named " + argument + "*", pageCommand, page,
+                            () -> claimManager.findClaimsByName(argument), BY_NAME);
+                } else {
+                    player.sendMessage(ChatColor.RED + usage);
+                }
+                return true;
+            }
+
+            if (args[0].equalsIgnoreCase("subclaim")) {
+                if (args.length < 3) {
+                    player.sendMessage(ChatColor.RED + "Usage: /safeclaim subclaim <parent> <name>");
+                    return true;
+                }
+
+                String parentName = args[1];
+                String name = args[2];
+                if (!ClaimManager.Claim.isValidName(name)) {
+                    player.sendMessage(ChatColor.RED + "Claim names may only contain letters, digits, '_' and '-', up to " +
+                            ClaimManager.Claim.MAX_NAME_LENGTH + " characters.");
+                    return true;
+                }
+
+                ClaimManager.ClaimSelection selection = claimManager.getSelection(player.getUniqueId());
+                if (selection == null || !selection.isComplete()) {
+                    player.sendMessage(ChatColor.RED + "You must select an area first using the claim tool.");
+                    return true;
+                }
+
+                ClaimManager.CreateResult result = claimManager.createSubclaim(player.getUniqueId(), parentName, name,
+                        selection.getFirstCorner(), selection.getSecondCorner());
+                ClaimManager.Claim conflict = result.getConflict();
+                if (result.isSuccess()) {
+                    player.sendMessage(ChatColor.GREEN + "Subclaim '" + name + "' of '" + parentName + "' has been created!");
+                    visualizer.show(player, result.getClaim());
+                } else if (conflict == null) {
+                    player.sendMessage(ChatColor.RED + "Could not find a claim with the name '" + parentName + "'.");
+                } else if (conflict.getName().equals(name)) {
+                    player.sendMessage(ChatColor.RED + "You already have a claim with the name '" + name + "'.");
+                } else if (conflict.getName().equals(parentName)) {
+                    player.sendMessage(ChatColor.RED + "The selected area must lie completely inside '" + parentName + "'.");
+                } else {
+                    player.sendMessage(ChatColor.RED + "The selected area overlaps with the subclaim '" + conflict.getName() + "' at (" +
+                            conflict.getMinX() + ", " + conflict.getMinZ() + ") to (" + conflict.getMaxX() + ", " + conflict.getMaxZ() + ").");
+                }
+                return true;
+            }
+
+            if (args[0].equalsIgnoreCase("flag")) {
+                if (args.length != 2 && args.length != 4) {
+                    player.sendMessage(ChatColor.RED + "Usage: /safeclaim flag <name> [<" +
+                            String.join("|", ClaimManager.Claim.FLAG_NAMES) + "> <on|off>]");
+                    return true;
+                }
+
+                String name = args[1];
+                ClaimManager.Claim claim = claimManager.getClaim(player.getUniqueId(), name);
+                if (claim == null) {
+                    player.sendMessage(ChatColor.RED + "Could not find a claim with the name '" + name + "'.");
+                    return true;
+                }
+                if (args.length == 4) {
+                    int flag = ClaimManager.Claim.flagByName(args[2]);
+                    boolean enabled = args[3].equalsIgnoreCase("on");
+                    if (flag == 0 || !enabled && !args[3].equalsIgnoreCase("off")) {
+                        player.sendMessage(ChatColor.RED + "Usage: /safeclaim flag <name> [<" +
+                                String.join("|", ClaimManager.Claim.FLAG_NAMES) + "> <on|off>]");
+                        return true;
+                    }
+                    claimManager.setFlag(player.getUniqueId(), name, flag, enabled);
+                }
+
+                List<String> flags = ClaimManager.Claim.flagNames(claim.getFlags());
+                player.sendMessage(ChatColor.GREEN + "Flags of '" + name + "': " + (flags.isEmpty() ? "none" : String.join(", ", flags)));
+                return true;
+            }
+
+            if (args[0].equalsIgnoreCase("trust") || args[0].equalsIgnoreCase("untrust")) {
+                boolean trust = args[0].equalsIgnoreCase("trust");
+                if (args.length < 3) {
+                    player.sendMessage(ChatColor.RED + "Usage: /safeclaim " + args[0].toLowerCase() + " <name> <player>");
+                    return true;
+                }
+
+                OfflinePlayer target = findPlayer(args[2]);
+                if (target == null) {
+                    player.sendMessage(ChatColor.RED + "Unknown player '" + args[2] + "'.");
+                    return true;
+                }
+                if (claimManager.setTrusted(player.getUniqueId(), args[1], target.getUniqueId(), trust) == null) {
+                    player.sendMessage(ChatColor.RED + "Could not find a claim with the name '" + args[1] + "'.");
+                    return true;
+                }
+                player.sendMessage(ChatColor.GREEN + args[2] + (trust ? " is now trusted in '" : " is no longer trusted in '") + args[1] + "'.");
+                return true;
+            }
+
+            if (args[0].equalsIgnoreCase("perf")) {
+                if (args.length > 1) {
+                    if (args[1].equalsIgnoreCase("reset")) {
+                        metrics.reset();
+                        player.sendMessage(ChatColor.GREEN + "Performance counters have been reset.");
+                    } else if (args[1].equalsIgnoreCase("on") || args[1].equalsIgnoreCase("off")) {
+                        metrics.setTiming(args[1].equalsIgnoreCase("on"));
+                        player.sendMessage(ChatColor.GREEN + "Latency timing is now " + args[1].toLowerCase() + ".");
+                    } else {
+                        player.sendMessage(ChatColor.RED + "Usage: /safeclaim perf [reset|on|off]");
+                    }
+                    return true;
+                }
+
+                double seconds = Math.max(1, metrics.getElapsedSeconds());
+                player.sendMessage(ChatColor.GOLD + "=== SafeClaim Performance (" + (long) seconds + "s" +
+                        (metrics.isTiming() ? "" : ", timing off") + ") ===");
+                for (PerfMetrics.Probe probe : metrics.getProbes()) {
+                    long calls = probe.getCalls();
+                    if (calls == 0) {
+                        continue;
+                    }
+                    StringBuilder line = new StringBuilder(ChatColor.GREEN + probe.getName() + ": " +
+                            String.format("%.1f/s, %.1f%% hit, p50 %dns, p99 %dns",
+                                    calls / seconds, probe.getHits() * 100.0 / calls,
+                                    probe.getPercentile(50), probe.getPercentile(99)));
+                    // How many calls got past each of a handler's filters
+                    String[] stages = probe.getStages();
+                    for (int i = 0; i < stages.length; i++) {
+                        line.append(String.format(", %.1f%% %s", probe.getPassed(i) * 100.0 / calls, stages[i]));
+                    }
+                    player.sendMessage(line.toString());
+                }
+                return true;
+            }
+
+            if (args[0].equalsIgnoreCase("import") || args[0].equalsIgnoreCase("export")) {
+                boolean importing = args[0].equalsIgnoreCase("import");
+                boolean replace = importing && args.length == 3 && args[2].equalsIgnoreCase("replace");
+                boolean validMode = args.length == 2 || importing && args.length == 3 && (replace || args[2].equalsIgnoreCase("merge"));
+                if (!validMode) {
+                    player.sendMessage(ChatColor.RED + (importing ? "Usage: /safeclaim import <file> [merge|replace]" : "Usage: /safeclaim export <file>"));
+                    return true;
+                }
+
+                File file = transfer.resolve(args[1]);
+                if (file == null) {
+                    player.sendMessage(ChatColor.RED + "Files must be inside the plugin's transfers folder.");
+                    return true;
+                }
+                if (importing && !file.isFile()) {
+                    player.sendMessage(ChatColor.RED + "Could not find " + args[1] + " in the plugin's transfers folder.");
+                    return true;
+                }
+                if (!(importing ? transfer.importClaims(player, file, replace) : transfer.exportClaims(player, file))) {
+                    player.sendMessage(ChatColor.RED + "An import or export is already running.");
+                    return true;
+                }
+                player.sendMessage(ChatColor.GREEN + (importing ? "Importing claims from " : "Exporting claims to ") + file.getName() + "...");
+                return true;
+            }
+
+            if (args[0].equalsIgnoreCase("expire")) {
+                boolean dryRun = args.length > 1 && args[1].equalsIgnoreCase("dry-run");
+                if (args.length > 2 || args.length == 2 && !dryRun) {
+                    player.sendMessage(ChatColor.RED + "Usage: /safeclaim expire [dry-run]");
+                    return true;
+                }
+                if (expiry == null) {
+                    player.sendMessage(ChatColor.RED + "Claim expiry is not available with the shared SQLite storage backend.");
+                } else if (!expiry.sweep(player, dryRun)) {
+                    player.sendMessage(ChatColor.RED + "An expiry sweep is already running.");
+                } else if (dryRun) {
+                    player.sendMessage(ChatColor.GREEN + "Looking for claims of players inactive for " + expiry.getInactiveDays() + "+ days...");
                 }
                 return true;
             }
@@ -103,8 +421,12 @@ public final class Main extends JavaPlugin implements Listener {
                 player.sendMessage(ChatColor.GREEN + "2. Right-click two blocks to select the corners of your claim.");
                 player.sendMessage(ChatColor.GREEN + "3. Use /safeclaim name <name> to create the claim.");
                 player.sendMessage(ChatColor.GREEN + "4. Use /safeclaim delete <name> to delete a claim.");
-                player.sendMessage(ChatColor.GREEN + "5. Use /safeclaim list to view your claims.");
-                player.sendMessage(ChatColor.GREEN + "6. Inside a claim, players cannot break blocks, damage entities, or be damaged.");
+                player.sendMessage(ChatColor.GREEN + "5. Use /safeclaim list [page] to view your claims, /safeclaim find to search all claims.");
+                player.sendMessage(ChatColor.GREEN + "6. Inside a claim, only you and trusted players can build, and nobody can be damaged.");
+                player.sendMessage(ChatColor.GREEN + "7. Use /safeclaim flag <name> <flag> <on|off> to allow build, pvp, mob-damage, explosions or interact.");
+                player.sendMessage(ChatColor.GREEN + "8. Use /safeclaim trust|untrust <name> <player> to manage who can build in a claim.");
+                player.sendMessage(ChatColor.GREEN + "9. Use /safeclaim perf to see call rates, latencies and filtered events of the plugin's hot paths.");
+                player.sendMessage(ChatColor.GREEN + "10. Select an area inside a claim and use /safeclaim subclaim <parent> <name> to give it its own flags and trusted players.");
                 return true;
             }
 
@@ -114,54 +436,57 @@ public final class Main extends JavaPlugin implements Listener {
             }
 
             String name = args[1];
+            if (!ClaimManager.Claim.isValidName(name)) {
+                player.sendMessage(ChatColor.RED + "Claim names may only contain letters, digits, '_' and '-', up to " +
+                        ClaimManager.Claim.MAX_NAME_LENGTH + " characters.");
+                return true;
+            }
+
             ClaimManager.ClaimSelection selection = claimManager.getSelection(player.getUniqueId());
             if (selection == null || !selection.isComplete()) {
                 player.sendMessage(ChatColor.RED + "You must select an area first using the claim tool.");
                 return true;
             }
 
-            if (claimManager.createClaim(player.getUniqueId(), name, selection.getFirstCorner(), selection.getSecondCorner())) {
+            ClaimManager.CreateResult result = claimManager.createClaim(player.getUniqueId(), name, selection.getFirstCorner(), selection.getSecondCorner());
+            if (result.isSuccess()) {
                 player.sendMessage(ChatColor.GREEN + "Claim '" + name + "' has been created!");
-                visualizeClaim(player, claimManager.getClaim(player.getUniqueId(), name));
+                visualizer.show(player, result.getClaim());
+            } else if (result.getConflict().getOwner().equals(player.getUniqueId()) && result.getConflict().getName().equals(name)) {
+                player.sendMessage(ChatColor.RED + "You already have a claim with the name '" + name + "'.");
             } else {
-                player.sendMessage(ChatColor.RED + "The selected area overlaps with an existing claim.");
+                ClaimManager.Claim conflict = result.getConflict();
+                String ownerName = Bukkit.getOfflinePlayer(conflict.getOwner()).getName();
+                player.sendMessage(ChatColor.RED + "The selected area overlaps with the claim '" + conflict.getName() + "' owned by " +
+                        (ownerName != null ? ownerName : conflict.getOwner().toString()) + " at (" +
+                        conflict.getMinX() + ", " + conflict.getMinZ() + ") to (" + conflict.getMaxX() + ", " + conflict.getMaxZ() + ").");
             }
             return true;
         }
         return false;
     }
 
-    // Visualize the claim using particles
-    private void visualizeClaim(Player player, ClaimManager.Claim claim) {
-        if (claim == null) return;
-
-        Location corner1 = claim.getFirstCorner();
-        Location corner2 = claim.getSecondCorner();
-
-        double minX = Math.min(corner1.getX(), corner2.getX());
-        double maxX = Math.max(corner1.getX(), corner2.getX());
-        double minY = Math.min(corner1.getY(), corner2.getY());
-        double maxY = Math.max(corner1.getY(), corner2.getY());
-        double minZ = Math.min(corner1.getZ(), corner2.getZ());
-        double maxZ = Math.max(corner1.getZ(), corner2.getZ());
-
-        for (double x = minX; x <= maxX; x += 0.5) {
-            for (double z = minZ; z <= maxZ; z += 0.5) {
-                player.spawnParticle(Particle.VILLAGER_HAPPY, new Location(corner1.getWorld(), x, minY, z), 1);
-                player.spawnParticle(Particle.VILLAGER_HAPPY, new Location(corner1.getWorld(), x, maxY, z), 1);
-            }
+    // Page number argument at the given position (1 if absent), or null if it is not a number
+    private static Integer parsePage(String[] args, int position) {
+        if (args.length <= position) {
+            return 1;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(args[position]));
+        } catch (NumberFormatException e) {
+            return null;
         }
+    }
 
-        for (double y = minY; y <= maxY; y += 0.5) {
-            for (double x = minX; x <= maxX; x += 0.5) {
-                player.spawnParticle(Particle.VILLAGER_HAPPY, new Location(corner1.getWorld(), x, y, minZ), 1);
-                player.spawnParticle(Particle.VILLAGER_HAPPY, new Location(corner1.getWorld(), x, y, maxZ), 1);
-            }
-            for (double z = minZ; z <= maxZ; z += 0.5) {
-                player.spawnParticle(Particle.VILLAGER_HAPPY, new Location(corner1.getWorld(), minX, y, z), 1);
-                player.spawnParticle(Particle.VILLAGER_HAPPY, new Location(corner1.getWorld(), maxX, y, z), 1);
-            }
+    // Find a player by name who is online or has played here before, or null
+    @SuppressWarnings("deprecation")
+    private static OfflinePlayer findPlayer(String name) {
+        Player online = Bukkit.getPlayerExact(name);
+        if (online != null) {
+            return online;
         }
+        OfflinePlayer offline = Bukkit.getOfflinePlayer(name);
+        return offline.hasPlayedBefore() ? offline : null;
     }
 
     // Static method to create the claim tool
@@ -170,60 +495,45 @@ public final class Main extends JavaPlugin implements Listener {
         ItemMeta meta = tool.getItemMeta();
         if (meta != null) {
             meta.setDisplayName(ChatColor.GOLD + "Claim Tool");
+            meta.getPersistentDataContainer().set(CLAIM_TOOL_KEY, PersistentDataType.BYTE, (byte) 1);
             tool.setItemMeta(meta);
         }
         return tool;
     }
 
-    // Save claims to a YAML file
-    private void saveClaims() {
-        YamlConfiguration yaml = new YamlConfiguration();
-        for (Map.Entry<UUID, Map<String, ClaimManager.Claim>> entry : claimManager.getClaims().entrySet()) {
-            UUID playerId = entry.getKey();
-            Map<String, ClaimManager.Claim> playerClaims = entry.getValue();
-            for (Map.Entry<String, ClaimManager.Claim> claimEntry : playerClaims.entrySet()) {
-                String claimName = claimEntry.getKey();
-                ClaimManager.Claim claim = claimEntry.getValue();
-                String path = playerId.toString() + "." + claimName + ".";
-                yaml.set(path + "world", claim.getFirstCorner().getWorld().getName());
-                yaml.set(path + "x1", claim.getFirstCorner().getX());
-                yaml.set(path + "y1", claim.getFirstCorner().getY());
-                yaml.set(path + "z1", claim.getFirstCorner().getZ());
-                yaml.set(path + "x2", claim.getSecondCorner().getX());
-                yaml.set(path + "y2", claim.getSecondCorner().getY());
-                yaml.set(path + "z2", claim.getSecondCorner().getZ());
-            }
+    // Check if an item is the claim tool. The material check rejects almost everything before
+    // any item meta is read; tools handed out before the marker existed are still recognised.
+    public static boolean isClaimTool(ItemStack item) {
+        if (item == null || item.getType() != Material.GOLDEN_SHOVEL || !item.hasItemMeta()) {
+            return false;
         }
+        ItemMeta meta = item.getItemMeta();
+        return meta.getPersistentDataContainer().has(CLAIM_TOOL_KEY, PersistentDataType.BYTE) || item.isSimilar(LEGACY_CLAIM_TOOL);
+    }
 
-        try {
-            yaml.save(claimsFile);
-        } catch (IOException e) {
-            getLogger().severe("Failed to save claims to file: " + e.getMessage());
+    private static ItemStack createLegacyClaimTool() {
+        ItemStack tool = new ItemStack(Material.GOLDEN_SHOVEL);
+        ItemMeta meta = tool.getItemMeta();
+        if (meta != null) {
+            meta.setDisplayName(ChatColor.GOLD + "Claim Tool");
+            tool.setItemMeta(meta);
         }
+        return tool;
     }
 
-    // Load claims from a YAML file
-    private void loadClaims() {
-        if (!claimsFile.exists()) {
+    // Read the per-world claim height limits from config.yml
+    private void loadHeightLimits() {
+        ConfigurationSection section = getConfig().getConfigurationSection("height-limits");
+        if (section == null) {
             return;
         }
-
-        YamlConfiguration yaml = YamlConfiguration.loadConfiguration(claimsFile);
-        for (String playerIdStr : yaml.getKeys(false)) {
-            UUID playerId = UUID.fromString(playerIdStr);
-            for (String claimName : yaml.getConfigurationSection(playerIdStr).getKeys(false)) {
-                String path = playerIdStr + "." + claimName + ".";
-                String worldName = yaml.getString(path + "world");
-                double x1 = yaml.getDouble(path + "x1");
-                double y1 = yaml.getDouble(path + "y1");
-                double z1 = yaml.getDouble(path + "z1");
-                double x2 = yaml.getDouble(path + "x2");
-                double y2 = yaml.getDouble(path + "y2");
-                double z2 = yaml.getDouble(path + "z2");
-
-                Location corner1 = new Location(Bukkit.getWorld(worldName), x1, y1, z1);
-                Location corner2 = new Location(Bukkit.getWorld(worldName), x2, y2, z2);
-                claimManager.createClaim(playerId, claimName, corner1, corner2);
+        for (String worldName : section.getKeys(false)) {
+            int minY = section.getInt(worldName + ".min-y", -64);
+            int maxY = section.getInt(worldName + ".max-y", 320);
+            if (worldName.equals("default")) {
+                claimManager.setDefaultHeightLimits(minY, maxY);
+            } else {
+                claimManager.setHeightLimits(worldName, minY, maxY);
             }
         }
     }
@@ -0,0 +1,102 @@
+package net.safeclaim;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Appends one CSV row per probe every interval to perf.csv, with the calls, hit rate and latency
+// percentiles of that interval only. The file is rolled over to perf.csv.1 once it grows past
+// the configured size. Runs on an async scheduler thread; it only reads the lock-free probes.
+public class PerfCsvWriter implements Runnable {
+    private static final String HEADER = "timestamp,probe,calls,calls_per_second,hit_ratio,p50_ns,p99_ns\n";
+
+    private final PerfMetrics metrics;
+    private final File file;
+    private final long maxBytes;
+    private final Logger logger;
+    // Probe state at the previous row, to turn cumulative counters into per-interval values
+    private final Map<String, long[]> previousHistograms = new HashMap<>();
+    private final Map<String, Long> previousCalls = new HashMap<>();
+    private final Map<String, Long> previousHits = new HashMap<>();
+    private long previousTime = System.nanoTime();
+
+    public PerfCsvWriter(PerfMetrics metrics, File file, long maxBytes, Logger logger) {
+        this.metrics = metrics;
+        this.file = file;
+        this.maxBytes = maxBytes;
+        this.logger = logger;
+    }
+
+    @Override
+    public synchronized void run() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1e-9, (now - previousTime) / 1e9);
+        previousTime = now;
+
+        StringBuilder rows = new StringBuilder();
+        long timestamp = System.currentTimeMillis();
+        for (PerfMetrics.Probe probe : metrics.getProbes()) {
+            long calls = probe.getCalls();
+            long hits = probe.getHits();
+            long[] histogram = probe.getHistogram();
+            // Counters go backwards after /safeclaim perf reset; start the interval from zero then
+            long intervalCalls = calls - previousCalls.getOrDefault(probe.getName(), 0L);
+            long intervalHits = hits - previousHits.getOrDefault(probe.getName(), 0L);
+            long[] previous = previousHistograms.get(probe.getName());
+            if (intervalCalls < 0 || intervalHits < 0) {
+                intervalCalls = calls;
+                intervalHits = hits;
+                previous = null;
+            }
+            if (previous != null) {
+                for (int i = 0; i < histogram.length; i++) {
+                    previous[i] = Math.max(0, histogram[i] - previous[i]);
+                }
+            }
+            long[] interval = previous != null ? previous : histogram.clone();
+            previousCalls.put(probe.getName(), calls);
+            previousHits.put(probe.getName(), hits);
+            previousHistograms.put(probe.getName(), histogram);
+
+            if (intervalCalls == 0) {
+                continue;
+            }
+            rows.append(timestamp).append(',')
+                    .append(probe.getName()).append(',')
+                    .append(intervalCalls).append(',')
+                    .append(String.format(Locale.ROOT, "%.1f", intervalCalls / seconds)).append(',')
+                    .append(String.format(Locale.ROOT, "%.4f", (double) intervalHits / intervalCalls)).append(',')
+                    .append(PerfMetrics.percentile(interval, 50)).append(',')
+                    .append(PerfMetrics.percentile(interval, 99)).append('\n');
+        }
+        if (rows.length() == 0) {
+            return;
+        }
+
+        try {
+            if (file.length() > maxBytes) {
+                File rolled = new File(file.getPath() + ".1");
+                if (rolled.exists() && !rolled.delete() || !file.renameTo(rolled)) {
+                    logger.warning("Could not roll over " + file.getName());
+                }
+            }
+            boolean fresh = !file.exists();
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8)) {
+                if (fresh) {
+                    writer.write(HEADER);
+                }
+                writer.write(rows.toString());
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to write " + file.getName(), e);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package net.safeclaim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Lock-free call counters and latency histograms for the plugin's hot paths.
+// Each probe counts calls and hits (calls that found a claim / did something) and records
+// latencies in a log-linear histogram: 8 sub-buckets per power of two, so percentiles are
+// accurate to about 12%. Recording is two LongAdder increments and one atomic add; timing can
+// be switched off at runtime, which leaves only the counters.
+// Probes of event handlers can also count how many calls got past each of the handler's cheap
+// filters, so it is visible how much traffic is rejected before any claim lookup runs.
+public class PerfMetrics {
+    // Shared instance for code running without the plugin (benchmarks, simulations)
+    public static final PerfMetrics DISABLED = new PerfMetrics(false);
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS + SUB_BUCKETS;
+
+    private final Map<String, Probe> probes = new ConcurrentHashMap<>();
+    private volatile boolean timing;
+    private volatile long resetAt = System.nanoTime();
+
+    public PerfMetrics(boolean timing) {
+        this.timing = timing;
+    }
+
+    // Get (or create) the probe with the given name
+    public Probe probe(String name) {
+        return probe(name, new String[0]);
+    }
+
+    // Get (or create) the probe with the given name and filter stages, in the order calls pass them
+    public Probe probe(String name, String... stages) {
+        return probes.computeIfAbsent(name, key -> new Probe(key, stages));
+    }
+
+    // All probes, sorted by name
+    public List<Probe> getProbes() {
+        List<Probe> list = new ArrayList<>(probes.values());
+        list.sort((a, b) -> a.name.compareTo(b.name));
+        return list;
+    }
+
+    public boolean isTiming() {
+        return timing;
+    }
+
+    public void setTiming(boolean timing) {
+        this.timing = timing;
+    }
+
+    // Seconds since the metrics were last reset
+    public double getElapsedSeconds() {
+        return (System.nanoTime() - resetAt) / 1e9;
+    }
+
+    public void reset() {
+        for (Probe probe : probes.values()) {
+            probe.reset();
+        }
+        resetAt = System.nanoTime();
+    }
+
+    static int bucketOf(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) Math.max(0, nanos);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    // Midpoint of the range of latencies that fall into a bucket
+    static long valueOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long low = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+        return low + (1L << (exponent - SUB_BUCKET_BITS)) / 2;
+    }
+
+    public final class Probe {
+        private final String name;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder hits = new LongAdder();
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+        private final String[] stages;
+        private final LongAdder[] passed;
+
+        private Probe(String name, String[] stages) {
+            this.name = name;
+            this.stages = stages;
+            this.passed = new LongAdder[stages.length];
+            for (int i = 0; i < passed.length; i++) {
+                passed[i] = new LongAdder();
+            }
+        }
+
+        // Start timing a call; pass the result to stop()
+        public long start() {
+            return timing ? System.nanoTime() : 0;
+        }
+
+        // Finish a call started with start()
+        public void stop(long start, boolean hit) {
+            calls.increment();
+            if (hit) {
+                hits.increment();
+            }
+            if (start != 0) {
+                histogram.incrementAndGet(bucketOf(System.nanoTime() - start));
+            }
+        }
+
+        // Record that a call got past the given filter stage
+        public void pass(int stage) {
+            passed[stage].increment();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String[] getStages() {
+            return stages.clone();
+        }
+
+        // Calls that got past the given filter stage
+        public long getPassed(int stage) {
+            return passed[stage].sum();
+        }
+
+        public long getCalls() {
+            return calls.sum();
+        }
+
+        public long getHits() {
+            return hits.sum();
+        }
+
+        // Copy of the histogram bucket counts, for percentiles over an interval (see PerfCsvWriter)
+        public long[] getHistogram() {
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = histogram.get(i);
+            }
+            return counts;
+        }
+
+        // Latency percentile in nanoseconds (0 if no timed calls were recorded)
+        public long getPercentile(double percentile) {
+            return percentile(getHistogram(), percentile);
+        }
+
+        private void reset() {
+            calls.reset();
+            hits.reset();
+            for (LongAdder counter : passed) {
+                counter.reset();
+            }
+            for (int i = 0; i < BUCKETS; i++) {
+                histogram.set(i, 0);
+            }
+        }
+    }
+
+    // Latency percentile in nanoseconds over a set of histogram bucket counts
+    static long percentile(long[] counts, double percentile) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return valueOf(i);
+            }
+        }
+        return valueOf(counts.length - 1);
+    }
+}
@@ -0,0 +1,38 @@
+package net.safeclaim;
+
+import org.bukkit.entity.Player;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.player.PlayerEvent;
+
+// Fired when a player enters, leaves or moves between claims
+public class PlayerClaimChangeEvent extends PlayerEvent {
+    private static final HandlerList HANDLERS = new HandlerList();
+
+    private final ClaimManager.Claim from;
+    private final ClaimManager.Claim to;
+
+    public PlayerClaimChangeEvent(Player player, ClaimManager.Claim from, ClaimManager.Claim to) {
+        super(player);
+        this.from = from;
+        this.to = to;
+    }
+
+    // The claim the player was in, or null if they were outside any claim
+    public ClaimManager.Claim getFrom() {
+        return from;
+    }
+
+    // The claim the player is now in, or null if they left all claims
+    public ClaimManager.Claim getTo() {
+        return to;
+    }
+
+    @Override
+    public HandlerList getHandlers() {
+        return HANDLERS;
+    }
+
+    public static HandlerList getHandlerList() {
+        return HANDLERS;
+    }
+}
@@ -0,0 +1,89 @@
+package net.safeclaim;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerRespawnEvent;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+// Keeps ClaimManager's per-player claim cache up to date. The cache is only recomputed when a
+// player crosses a block boundary, so claim checks for players become a single map read.
+// A sampler running every second catches movement that fires no PlayerMoveEvent (vehicles,
+// pistons) and claims created or deleted around a standing player, and fires
+// PlayerClaimChangeEvent for every change it sees.
+public class PlayerClaimTracker implements Listener, Runnable {
+
+    private final ClaimManager claimManager;
+    // Last claim we announced for each player (main thread only)
+    private final Map<UUID, ClaimManager.Claim> announced = new HashMap<>();
+
+    public PlayerClaimTracker(ClaimManager claimManager) {
+        this.claimManager = claimManager;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        update(event.getPlayer(), event.getPlayer().getLocation());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        claimManager.forgetPlayer(event.getPlayer().getUniqueId());
+        announced.remove(event.getPlayer().getUniqueId());
+    }
+
+    // Also receives PlayerTeleportEvent, which shares PlayerMoveEvent's handler list
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerMove(PlayerMoveEvent event) {
+        Location from = event.getFrom();
+        Location to = event.getTo();
+        if (to == null) {
+            return;
+        }
+        // Most move events are head rotation or movement within the same block
+        if (from.getBlockX() == to.getBlockX() && from.getBlockY() == to.getBlockY() &&
+                from.getBlockZ() == to.getBlockZ() && from.getWorld() == to.getWorld()) {
+            return;
+        }
+        update(event.getPlayer(), to);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerRespawn(PlayerRespawnEvent event) {
+        update(event.getPlayer(), event.getRespawnLocation());
+    }
+
+    // Periodic sampler, scheduled every 20 ticks
+    @Override
+    public void run() {
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            update(player, player.getLocation());
+        }
+    }
+
+    private void update(Player player, Location location) {
+        if (location.getWorld() == null) {
+            return;
+        }
+        ClaimManager.Claim claim = claimManager.updatePlayerPosition(player.getUniqueId(), location.getWorld().getName(),
+                location.getBlockX(), location.getBlockY(), location.getBlockZ());
+        ClaimManager.Claim previous = announced.get(player.getUniqueId());
+        if (claim != previous) {
+            if (claim == null) {
+                announced.remove(player.getUniqueId());
+            } else {
+                announced.put(player.getUniqueId(), claim);
+            }
+            Bukkit.getPluginManager().callEvent(new PlayerClaimChangeEvent(player, previous, claim));
+        }
+    }
+}
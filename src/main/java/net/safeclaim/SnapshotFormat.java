@@ -0,0 +1,18 @@
+package net.safeclaim;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+// On-disk layout of a full claim snapshot (see ClaimStorage)
+interface SnapshotFormat {
+    // Name of the snapshot file inside the plugin's data folder
+    String getFileName();
+
+    // Read every claim in the snapshot; claims are built through the manager so they pick up
+    // the current height limits
+    List<ClaimManager.Claim> read(File file, ClaimManager claimManager) throws IOException;
+
+    void write(File file, Collection<ClaimManager.Claim> claims) throws IOException;
+}
@@ -0,0 +1,569 @@
+package net.safeclaim;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Persists claims in an embedded SQLite database that several servers on one host can share
+// (point storage.sqlite.file of each at the same file). The database runs in WAL mode, so readers
+// never block the writer and a commit is a single append to the write-ahead log.
+//
+// The main thread only queues changes; a worker thread writes whatever has queued up in one
+// transaction. Every write also appends the claim's key to a change log whose sequence number
+// only grows. Each server polls the log for sequence numbers it has not seen (normally a single
+// row lookup that finds nothing new), re-reads only the claims other servers changed and applies
+// them to its own index without change notifications, so they are not written back.
+public class SqliteClaimStore implements ClaimStore {
+    private static final int BUSY_TIMEOUT_MILLIS = 5000;
+    // Change log entries are kept this long; a server that falls further behind reloads every claim
+    private static final long CHANGE_RETENTION_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long PRUNE_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final String CREATE_CLAIMS = "CREATE TABLE IF NOT EXISTS claims (" +
+            "owner TEXT NOT NULL, name TEXT NOT NULL, world TEXT NOT NULL, " +
+            "min_x INTEGER NOT NULL, min_z INTEGER NOT NULL, max_x INTEGER NOT NULL, max_z INTEGER NOT NULL, " +
+            "flags INTEGER NOT NULL, trusted TEXT NOT NULL, parent TEXT NOT NULL DEFAULT '', PRIMARY KEY (owner, name))";
+    private static final String CREATE_CHANGES = "CREATE TABLE IF NOT EXISTS claim_changes (" +
+            "seq INTEGER PRIMARY KEY AUTOINCREMENT, server TEXT NOT NULL, " +
+            "owner TEXT NOT NULL, name TEXT NOT NULL, changed_at INTEGER NOT NULL)";
+    private static final String COLUMNS = "owner, name, world, min_x, min_z, max_x, max_z, flags, trusted, parent";
+    private static final String UPSERT = "INSERT OR REPLACE INTO claims (" + COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_NEW = "INSERT OR IGNORE INTO claims (" + COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String DELETE = "DELETE FROM claims WHERE owner = ? AND name = ?";
+    private static final String LOG_CHANGE = "INSERT INTO claim_changes (server, owner, name, changed_at) VALUES (?, ?, ?, ?)";
+
+    private final File dataFolder;
+    private final File databaseFile;
+    private final SnapshotFormat format;
+    private final Logger logger;
+    private final long pollIntervalTicks;
+    private final PerfMetrics metrics;
+    // Marks this server's entries in the change log, which its own polls skip
+    private final String serverId = UUID.randomUUID().toString();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "SafeClaim-SQLite");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Queue<ClaimRow> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushQueued = new AtomicBoolean();
+    private final AtomicBoolean pollQueued = new AtomicBoolean();
+
+    private final PerfMetrics.Probe writeProbe;
+    private final PerfMetrics.Probe pollProbe;
+
+    private ClaimManager claimManager;
+    // Only touched from the worker thread once loaded
+    private Connection connection;
+    private long lastSeq;
+    private long lastPrune;
+    // Changes taken from the queue but not committed yet
+    private final List<ClaimRow> unwritten = new ArrayList<>();
+
+    public SqliteClaimStore(File dataFolder, File databaseFile, SnapshotFormat format, Logger logger, int pollIntervalTicks,
+                            PerfMetrics metrics) {
+        this.dataFolder = dataFolder;
+        this.databaseFile = databaseFile;
+        this.format = format;
+        this.logger = logger;
+        this.pollIntervalTicks = Math.max(1, pollIntervalTicks);
+        this.metrics = metrics;
+        this.writeProbe = metrics.probe("storage.sqlite-write");
+        this.pollProbe = metrics.probe("storage.sqlite-poll");
+    }
+
+    // Open the database, take over this server's claim files on the first start, then load every claim
+    @Override
+    public void load(ClaimManager claimManager) {
+        this.claimManager = claimManager;
+        try {
+            open();
+            importFileStore();
+
+            // Read the change log position and the claims in one transaction, so no change falls in between
+            lastSeq = currentSeq();
+            List<ClaimManager.Claim> loaded = new ArrayList<>();
+            for (ClaimRow row : readAll()) {
+                loaded.add(row.toClaim(claimManager));
+            }
+            connection.commit();
+            claimManager.restoreClaims(loaded);
+        } catch (ClassNotFoundException | SQLException e) {
+            // Refuse to start with an empty claim set that other servers would then see deletions from
+            throw new IllegalStateException("Failed to load claims from " + databaseFile.getName(), e);
+        }
+        lastPrune = System.currentTimeMillis();
+        claimManager.setChangeListener(this);
+    }
+
+    // Check for other servers' changes every poll interval
+    @Override
+    public void schedule(Plugin plugin) {
+        Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, () -> {
+            if (pollQueued.compareAndSet(false, true)) {
+                executor.execute(this::poll);
+            }
+        }, pollIntervalTicks, pollIntervalTicks);
+    }
+
+    @Override
+    public void claimCreated(UUID owner, ClaimManager.Claim claim) {
+        enqueue(new ClaimRow(claim));
+    }
+
+    @Override
+    public void claimDeleted(UUID owner, ClaimManager.Claim claim) {
+        enqueue(new ClaimRow(owner, claim.getName()));
+    }
+
+    @Override
+    public void claimUpdated(UUID owner, ClaimManager.Claim claim) {
+        enqueue(new ClaimRow(claim));
+    }
+
+    // A bulk import: all rows go out with the next batch
+    @Override
+    public void claimsReplaced(Collection<ClaimManager.Claim> added, Collection<ClaimManager.Claim> removed) {
+        for (ClaimManager.Claim claim : removed) {
+            pending.add(new ClaimRow(claim.getOwner(), claim.getName()));
+        }
+        for (ClaimManager.Claim claim : added) {
+            pending.add(new ClaimRow(claim));
+        }
+        scheduleFlush();
+    }
+
+    @Override
+    public void close() {
+        executor.execute(() -> {
+            flush();
+            closeConnection();
+        });
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                logger.severe("Timed out while writing pending claim changes to " + databaseFile.getName() + ".");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void open() throws ClassNotFoundException, SQLException {
+        // The server ships the driver, but the plugin class loader has to register it
+        Class.forName("org.sqlite.JDBC");
+        File parent = databaseFile.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        connection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile.getAbsolutePath());
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA journal_mode=WAL");
+            // In WAL mode a crash can only lose the last commits, never corrupt the database
+            statement.execute("PRAGMA synchronous=NORMAL");
+            statement.execute("PRAGMA busy_timeout=" + BUSY_TIMEOUT_MILLIS);
+            statement.execute(CREATE_CLAIMS);
+            statement.execute(CREATE_CHANGES);
+        }
+        connection.setAutoCommit(false);
+    }
+
+    // First start on SQLite: merge the claims of the file store (snapshot and journal) into the
+    // database, keeping rows other servers already wrote, and set the files aside
+    private void importFileStore() throws SQLException {
+        if (fileStoreFiles().isEmpty()) {
+            return;
+        }
+
+        ClaimStorage fileStore = new ClaimStorage(dataFolder, format, logger, Integer.MAX_VALUE, 0, metrics);
+        fileStore.load(claimManager);
+        fileStore.close();
+        List<ClaimRow> rows = new ArrayList<>();
+        for (ClaimManager.Claim claim : claimManager.getAllClaims()) {
+            rows.add(new ClaimRow(claim));
+        }
+        int imported = write(rows, INSERT_NEW);
+        connection.commit();
+
+        // Listed only now: loading may have converted the snapshot to the configured format
+        List<File> files = fileStoreFiles();
+        for (File file : files) {
+            if (!file.renameTo(new File(dataFolder, file.getName() + ".imported"))) {
+                logger.warning("Could not rename " + file.getName() + "; its claims will be merged again on next start.");
+            }
+        }
+        logger.info("Imported " + imported + " of " + rows.size() + " claims from the claim files into " +
+                databaseFile.getName() + ".");
+    }
+
+    // The file store's snapshots and journal that exist in the plugin folder
+    private List<File> fileStoreFiles() {
+        String[] fileNames = {new YamlSnapshotFormat().getFileName(), new BinarySnapshotFormat().getFileName(), "claims.journal"};
+        List<File> files = new ArrayList<>();
+        for (String fileName : fileNames) {
+            File file = new File(dataFolder, fileName);
+            if (file.exists()) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    private void enqueue(ClaimRow change) {
+        pending.add(change);
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (flushQueued.compareAndSet(false, true)) {
+            executor.execute(this::flush);
+        }
+    }
+
+    // Write every queued change in one transaction (worker thread). Changes that fail, e.g. while
+    // another server holds the lock past the busy timeout, are retried with the next batch.
+    private void flush() {
+        flushQueued.set(false);
+        ClaimRow change;
+        while ((change = pending.poll()) != null) {
+            unwritten.add(change);
+        }
+        if (unwritten.isEmpty()) {
+            return;
+        }
+
+        long start = writeProbe.start();
+        try {
+            write(unwritten, UPSERT);
+            connection.commit();
+            unwritten.clear();
+            writeProbe.stop(start, true);
+        } catch (SQLException e) {
+            writeProbe.stop(start, false);
+            rollback();
+            logger.log(Level.SEVERE, "Failed to write " + unwritten.size() + " claim change(s) to " + databaseFile.getName() +
+                    "; retrying with the next change", e);
+        }
+    }
+
+    // Apply rows in order and log each change; returns how many rows were written
+    private int write(List<ClaimRow> rows, String insert) throws SQLException {
+        int written = 0;
+        long now = System.currentTimeMillis();
+        try (PreparedStatement upsert = connection.prepareStatement(insert);
+             PreparedStatement delete = connection.prepareStatement(DELETE);
+             PreparedStatement log = connection.prepareStatement(LOG_CHANGE)) {
+            for (ClaimRow row : rows) {
+                PreparedStatement statement = row.deleted ? delete : upsert;
+                row.bind(statement);
+                if (statement.executeUpdate() == 0) {
+                    continue;
+                }
+                written++;
+                log.setString(1, serverId);
+                log.setString(2, row.owner.toString());
+                log.setString(3, row.name);
+                log.setLong(4, now);
+                log.executeUpdate();
+            }
+        }
+        return written;
+    }
+
+    // Pick up changes other servers made since the last poll (worker thread)
+    private void poll() {
+        pollQueued.set(false);
+        // Own changes go first, so claims re-read below already include them
+        flush();
+
+        long start = pollProbe.start();
+        try {
+            int applied = applyRemoteChanges();
+            if (System.currentTimeMillis() - lastPrune >= PRUNE_INTERVAL_MILLIS) {
+                pruneChanges();
+            }
+            connection.commit();
+            pollProbe.stop(start, applied > 0);
+        } catch (SQLException e) {
+            pollProbe.stop(start, false);
+            rollback();
+            logger.log(Level.WARNING, "Failed to read claim changes from " + databaseFile.getName(), e);
+        }
+    }
+
+    private int applyRemoteChanges() throws SQLException {
+        long seq = currentSeq();
+        if (seq == lastSeq) {
+            return 0;
+        }
+        if (oldestSeq() > lastSeq + 1) {
+            // Entries we have not seen were already pruned
+            int applied = resync();
+            lastSeq = seq;
+            return applied;
+        }
+
+        // Several changes to one claim only need its latest row
+        Set<Map.Entry<UUID, String>> changed = new LinkedHashSet<>();
+        try (PreparedStatement query = connection.prepareStatement(
+                "SELECT owner, name FROM claim_changes WHERE seq > ? AND seq <= ? AND server <> ? ORDER BY seq")) {
+            query.setLong(1, lastSeq);
+            query.setLong(2, seq);
+            query.setString(3, serverId);
+            try (ResultSet result = query.executeQuery()) {
+                while (result.next()) {
+                    changed.add(new AbstractMap.SimpleImmutableEntry<>(UUID.fromString(result.getString(1)), result.getString(2)));
+                }
+            }
+        }
+
+        Set<Map.Entry<UUID, String>> unflushed = unflushedKeys();
+        try (PreparedStatement query = connection.prepareStatement("SELECT " + COLUMNS + " FROM claims WHERE owner = ? AND name = ?")) {
+            for (Map.Entry<UUID, String> key : changed) {
+                query.setString(1, key.getKey().toString());
+                query.setString(2, key.getValue());
+                try (ResultSet result = query.executeQuery()) {
+                    apply(key.getKey(), key.getValue(), result.next() ? new ClaimRow(result) : null, unflushed);
+                }
+            }
+        }
+        lastSeq = seq;
+        return changed.size();
+    }
+
+    // Bring every claim in line with the database after falling behind the change log. Claims
+    // with changes not written yet (e.g. after a failed flush) keep their in-memory state.
+    private int resync() throws SQLException {
+        Set<Map.Entry<UUID, String>> unflushed = unflushedKeys();
+        Set<Map.Entry<UUID, String>> stored = new HashSet<>();
+        for (ClaimRow row : readAll()) {
+            stored.add(new AbstractMap.SimpleImmutableEntry<>(row.owner, row.name));
+            apply(row.owner, row.name, row, unflushed);
+        }
+        for (ClaimManager.Claim claim : claimManager.getAllClaims()) {
+            Map.Entry<UUID, String> key = new AbstractMap.SimpleImmutableEntry<>(claim.getOwner(), claim.getName());
+            if (!stored.contains(key) && !unflushed.contains(key)) {
+                claimManager.forgetClaim(claim.getOwner(), claim.getName());
+            }
+        }
+        logger.info("Fell behind the claim change log; reloaded every claim from " + databaseFile.getName() + ".");
+        return stored.size();
+    }
+
+    // Make the in-memory claim match its row (null if it was deleted), without change notifications.
+    // Claims with unwritten local changes are left alone; writing them overrides the row anyway.
+    private void apply(UUID owner, String name, ClaimRow row, Set<Map.Entry<UUID, String>> unflushed) throws SQLException {
+        if (unflushed.contains(new AbstractMap.SimpleImmutableEntry<>(owner, name))) {
+            return;
+        }
+        if (row == null) {
+            claimManager.forgetClaim(owner, name);
+            return;
+        }
+        ClaimManager.Claim existing = claimManager.getClaim(owner, name);
+        if (existing != null && row.hasSameArea(existing) && row.parent.equals(ClaimStorage.parentName(existing))) {
+            // Only flags or trust changed: keep the claim object that position caches refer to
+            claimManager.restoreSettings(owner, name, row.flags, ClaimStorage.splitTrusted(row.trusted));
+            return;
+        }
+
+        // Two servers may each have accepted one of two overlapping claims before seeing the
+        // other. The claim changed first wins on every server; the loser is deleted by the server
+        // that has it, which spreads the deletion to the others.
+        ClaimManager.Claim claim = row.toClaim(claimManager);
+        ClaimManager.Claim conflict;
+        while ((conflict = claimManager.restoreClaimIfFree(claim)) != null) {
+            long conflictSeq = unflushed.contains(new AbstractMap.SimpleImmutableEntry<>(conflict.getOwner(), conflict.getName()))
+                    ? Long.MAX_VALUE : lastChange(conflict.getOwner(), conflict.getName());
+            if (conflictSeq <= lastChange(owner, name)) {
+                logger.warning("Ignoring claim '" + name + "' of " + owner + " from another server: it overlaps the earlier claim '" +
+                        conflict.getName() + "' of " + conflict.getOwner() + ".");
+                return;
+            }
+            logger.warning("Deleting claim '" + conflict.getName() + "' of " + conflict.getOwner() + ": it overlaps the claim '" +
+                    name + "' of " + owner + ", made earlier on another server.");
+            if (!claimManager.deleteClaim(conflict.getOwner(), conflict.getName())) {
+                return;
+            }
+        }
+    }
+
+    // Sequence number of the latest logged change of a claim, 0 if none is left in the change log
+    private long lastChange(UUID owner, String name) throws SQLException {
+        try (PreparedStatement query = connection.prepareStatement("SELECT MAX(seq) FROM claim_changes WHERE owner = ? AND name = ?")) {
+            query.setString(1, owner.toString());
+            query.setString(2, name);
+            try (ResultSet result = query.executeQuery()) {
+                return result.next() ? result.getLong(1) : 0;
+            }
+        }
+    }
+
+    // Claims with local changes that are queued or failed to write (worker thread)
+    private Set<Map.Entry<UUID, String>> unflushedKeys() {
+        Set<Map.Entry<UUID, String>> keys = new HashSet<>();
+        for (ClaimRow row : unwritten) {
+            keys.add(new AbstractMap.SimpleImmutableEntry<>(row.owner, row.name));
+        }
+        for (ClaimRow row : pending) {
+            keys.add(new AbstractMap.SimpleImmutableEntry<>(row.owner, row.name));
+        }
+        return keys;
+    }
+
+    private void pruneChanges() throws SQLException {
+        lastPrune = System.currentTimeMillis();
+        try (PreparedStatement prune = connection.prepareStatement("DELETE FROM claim_changes WHERE changed_at < ?")) {
+            prune.setLong(1, lastPrune - CHANGE_RETENTION_MILLIS);
+            prune.executeUpdate();
+        }
+    }
+
+    private List<ClaimRow> readAll() throws SQLException {
+        List<ClaimRow> rows = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery("SELECT " + COLUMNS + " FROM claims")) {
+            while (result.next()) {
+                rows.add(new ClaimRow(result));
+            }
+        }
+        return rows;
+    }
+
+    // Highest sequence number ever handed out (kept by SQLite for AUTOINCREMENT columns)
+    private long currentSeq() throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery("SELECT seq FROM sqlite_sequence WHERE name = 'claim_changes'")) {
+            return result.next() ? result.getLong(1) : 0;
+        }
+    }
+
+    // Lowest sequence number still in the log (entries are only ever pruned from the start)
+    private long oldestSeq() throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery("SELECT MIN(seq) FROM claim_changes")) {
+            long oldest = result.next() ? result.getLong(1) : 0;
+            return result.wasNull() || oldest == 0 ? Long.MAX_VALUE : oldest;
+        }
+    }
+
+    private void rollback() {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "Failed to roll back claim transaction", e);
+        }
+    }
+
+    private void closeConnection() {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "Failed to close " + databaseFile.getName(), e);
+        }
+        connection = null;
+    }
+
+    // One row of the claims table, or a deletion; captured when the change happens, since
+    // flags and trust lists may change again before the row is written
+    private static final class ClaimRow {
+        final boolean deleted;
+        final UUID owner;
+        final String name;
+        final String world;
+        final int minX;
+        final int minZ;
+        final int maxX;
+        final int maxZ;
+        final int flags;
+        final String trusted;
+        // Parent claim name, "" for a top-level claim
+        final String parent;
+
+        ClaimRow(ClaimManager.Claim claim) {
+            this(false, claim.getOwner(), claim.getName(), claim.getWorldName(), claim.getMinX(), claim.getMinZ(),
+                    claim.getMaxX(), claim.getMaxZ(), claim.getFlags(), ClaimStorage.joinTrusted(claim), ClaimStorage.parentName(claim));
+        }
+
+        ClaimRow(UUID owner, String name) {
+            this(true, owner, name, null, 0, 0, 0, 0, 0, null, null);
+        }
+
+        ClaimRow(ResultSet result) throws SQLException {
+            this(false, UUID.fromString(result.getString(1)), result.getString(2), result.getString(3),
+                    result.getInt(4), result.getInt(5), result.getInt(6), result.getInt(7), result.getInt(8), result.getString(9),
+                    result.getString(10));
+        }
+
+        private ClaimRow(boolean deleted, UUID owner, String name, String world, int minX, int minZ, int maxX, int maxZ,
+                         int flags, String trusted, String parent) {
+            this.deleted = deleted;
+            this.owner = owner;
+            this.name = name;
+            this.world = world;
+            this.minX = minX;
+            this.minZ = minZ;
+            this.maxX = maxX;
+            this.maxZ = maxZ;
+            this.flags = flags;
+            this.trusted = trusted;
+            this.parent = parent;
+        }
+
+        void bind(PreparedStatement statement) throws SQLException {
+            statement.setString(1, owner.toString());
+            statement.setString(2, name);
+            if (deleted) {
+                return;
+            }
+            statement.setString(3, world);
+            statement.setInt(4, minX);
+            statement.setInt(5, minZ);
+            statement.setInt(6, maxX);
+            statement.setInt(7, maxZ);
+            statement.setInt(8, flags);
+            statement.setString(9, trusted);
+            statement.setString(10, parent);
+        }
+
+        boolean hasSameArea(ClaimManager.Claim claim) {
+            return claim.getWorldName().equals(world) && claim.getMinX() == minX && claim.getMinZ() == minZ &&
+                    claim.getMaxX() == maxX && claim.getMaxZ() == maxZ;
+        }
+
+        ClaimManager.Claim toClaim(ClaimManager claimManager) {
+            ClaimManager.Claim claim = claimManager.buildClaim(owner, name, world, minX, minZ, maxX, maxZ);
+            claim.setFlags(flags);
+            claim.setTrusted(ClaimStorage.splitTrusted(trusted));
+            claim.setParentName(parent);
+            return claim;
+        }
+    }
+}
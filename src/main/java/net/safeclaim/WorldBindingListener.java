@@ -0,0 +1,30 @@
+package net.safeclaim;
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+// Builds a world's claim index partition when the world loads and releases it when the world
+// unloads, so index memory and lookups only cover worlds that are actually active. Claims in
+// unloaded worlds stay known (listing, saving, overlap checks) without being indexed.
+public class WorldBindingListener implements Listener {
+
+    private final ClaimManager claimManager;
+
+    public WorldBindingListener(ClaimManager claimManager) {
+        this.claimManager = claimManager;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldLoad(WorldLoadEvent event) {
+        claimManager.worldLoaded(event.getWorld().getName());
+    }
+
+    // Another plugin may still cancel the unload, so only act once it is final
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        claimManager.worldUnloaded(event.getWorld().getName());
+    }
+}
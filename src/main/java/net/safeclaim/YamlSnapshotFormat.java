@@ -0,0 +1,83 @@
+package net.safeclaim;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+// The original claims.yml layout: <owner>.<claim name>.{world,x1,y1,z1,x2,y2,z2}, plus the
+// names of the claim's flags and the UUIDs of its trusted players as lists, and for a subclaim
+// the name of its parent claim
+class YamlSnapshotFormat implements SnapshotFormat {
+
+    @Override
+    public String getFileName() {
+        return "claims.yml";
+    }
+
+    @Override
+    public List<ClaimManager.Claim> read(File file, ClaimManager claimManager) {
+        List<ClaimManager.Claim> loaded = new ArrayList<>();
+        YamlConfiguration yaml = YamlConfiguration.loadConfiguration(file);
+        for (String playerIdStr : yaml.getKeys(false)) {
+            UUID playerId = UUID.fromString(playerIdStr);
+            ConfigurationSection playerSection = yaml.getConfigurationSection(playerIdStr);
+            for (String claimName : playerSection.getKeys(false)) {
+                ConfigurationSection section = playerSection.getConfigurationSection(claimName);
+                // Older files stored raw doubles; the vertical extent comes from the height limits
+                ClaimManager.Claim claim = claimManager.buildClaim(playerId, claimName, section.getString("world"),
+                        (int) Math.floor(section.getDouble("x1")), (int) Math.floor(section.getDouble("z1")),
+                        (int) Math.floor(section.getDouble("x2")), (int) Math.floor(section.getDouble("z2")));
+                // Claims saved before flags existed keep the default rules
+                if (section.isList("flags")) {
+                    int flags = 0;
+                    for (String flag : section.getStringList("flags")) {
+                        flags |= ClaimManager.Claim.flagByName(flag);
+                    }
+                    claim.setFlags(flags);
+                }
+                List<UUID> trusted = new ArrayList<>();
+                for (String trustedId : section.getStringList("trusted")) {
+                    trusted.add(UUID.fromString(trustedId));
+                }
+                claim.setTrusted(trusted);
+                claim.setParentName(section.getString("parent"));
+                loaded.add(claim);
+            }
+        }
+        return loaded;
+    }
+
+    @Override
+    public void write(File file, Collection<ClaimManager.Claim> claims) throws IOException {
+        YamlConfiguration yaml = new YamlConfiguration();
+        for (ClaimManager.Claim claim : claims) {
+            String path = claim.getOwner() + "." + claim.getName() + ".";
+            yaml.set(path + "world", claim.getWorldName());
+            yaml.set(path + "x1", claim.getMinX());
+            yaml.set(path + "y1", claim.getMinY());
+            yaml.set(path + "z1", claim.getMinZ());
+            yaml.set(path + "x2", claim.getMaxX());
+            yaml.set(path + "y2", claim.getMaxY());
+            yaml.set(path + "z2", claim.getMaxZ());
+            yaml.set(path + "flags", ClaimManager.Claim.flagNames(claim.getFlags()));
+            String parentName = claim.getParentName();
+            if (parentName != null) {
+                yaml.set(path + "parent", parentName);
+            }
+            if (!claim.getTrusted().isEmpty()) {
+                List<String> trusted = new ArrayList<>();
+                for (UUID trustedId : claim.getTrusted()) {
+                    trusted.add(trustedId.toString());
+                }
+                yaml.set(path + "trusted", trusted);
+            }
+        }
+        yaml.save(file);
+    }
+}
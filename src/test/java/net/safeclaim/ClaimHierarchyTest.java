@@ -0,0 +1,37 @@
+package net.safeclaim;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ClaimHierarchyTest {
+    private static final String WORLD = "world";
+    private static final UUID OWNER = new UUID(0, 1);
+
+    // Creating a claim with the name of an existing one must not replace it and strand its subclaims
+    @Test
+    public void sameNameDoesNotReplaceParent() {
+        ClaimManager claimManager = new ClaimManager();
+        ClaimManager.Claim town = claimManager.createClaim(OWNER, "town", WORLD, 0, 0, 99, 99).getClaim();
+        assertTrue(claimManager.createSubclaim(OWNER, "town", "plot", WORLD, 10, 10, 20, 20).isSuccess());
+
+        ClaimManager.CreateResult elsewhere = claimManager.createClaim(OWNER, "town", WORLD, 1000, 1000, 1010, 1010);
+        assertFalse(elsewhere.isSuccess());
+        assertSame(town, elsewhere.getConflict());
+
+        assertSame(town, claimManager.getClaim(OWNER, "town"));
+        ClaimManager.Claim plot = claimManager.getClaimAt(WORLD, 15, 64, 15);
+        assertNotNull(plot);
+        assertEquals("plot", plot.getName());
+        assertSame(town, plot.getParent());
+        assertSame(town, claimManager.getClaimAt(WORLD, 50, 64, 50));
+        assertNull(claimManager.getClaimAt(WORLD, 1005, 64, 1005));
+    }
+}
@@ -0,0 +1,129 @@
+package net.safeclaim;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+// Claims written by each snapshot format, and changes written to the journal, must come back
+// unchanged: area, flags, trusted players and the parent of a subclaim
+public class SnapshotRoundTripTest {
+    private static final String WORLD = "world";
+    private static final UUID OWNER = new UUID(0, 1);
+    private static final UUID FRIEND = new UUID(0, 2);
+    private static final UUID OTHER_OWNER = new UUID(0, 3);
+
+    private File folder;
+
+    @Before
+    public void createFolder() throws IOException {
+        folder = Files.createTempDirectory("safeclaim-test").toFile();
+    }
+
+    @After
+    public void deleteFolder() {
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        folder.delete();
+    }
+
+    @Test
+    public void binarySnapshotRoundTrip() throws IOException {
+        assertSnapshotRoundTrip(new BinarySnapshotFormat());
+    }
+
+    @Test
+    public void yamlSnapshotRoundTrip() throws IOException {
+        assertSnapshotRoundTrip(new YamlSnapshotFormat());
+    }
+
+    @Test
+    public void journalReplayRestoresChanges() {
+        ClaimManager claimManager = new ClaimManager();
+        ClaimStorage storage = new ClaimStorage(folder, new BinarySnapshotFormat(), Logger.getAnonymousLogger(),
+                Integer.MAX_VALUE, 5, PerfMetrics.DISABLED);
+        storage.load(claimManager);
+        createSampleClaims(claimManager);
+        claimManager.createClaim(OTHER_OWNER, "gone", WORLD, 500, 500, 510, 510);
+        assertTrue(claimManager.deleteClaim(OTHER_OWNER, "gone"));
+        storage.close();
+        // Nothing was compacted, so everything has to come from the journal
+        assertFalse(new File(folder, "claims.dat").exists());
+        assertTrue(new File(folder, "claims.journal").exists());
+
+        ClaimManager reloaded = new ClaimManager();
+        ClaimStorage reopened = new ClaimStorage(folder, new BinarySnapshotFormat(), Logger.getAnonymousLogger(),
+                Integer.MAX_VALUE, 5, PerfMetrics.DISABLED);
+        reopened.load(reloaded);
+        reopened.close();
+
+        assertSameClaims(claimManager.getAllClaims(), reloaded.getAllClaims());
+        assertNull(reloaded.getClaim(OTHER_OWNER, "gone"));
+        assertEquals("plot", reloaded.getClaimAt(WORLD, 15, 64, 15).getName());
+        assertEquals("town", reloaded.getClaimAt(WORLD, 15, 64, 15).getParent().getName());
+    }
+
+    private void assertSnapshotRoundTrip(SnapshotFormat format) throws IOException {
+        ClaimManager claimManager = new ClaimManager();
+        createSampleClaims(claimManager);
+        File file = new File(folder, format.getFileName());
+        format.write(file, claimManager.getAllClaims());
+
+        ClaimManager reloaded = new ClaimManager();
+        List<ClaimManager.Claim> read = format.read(file, reloaded);
+        assertSameClaims(claimManager.getAllClaims(), read);
+
+        // Parent names are resolved once the claims are restored
+        reloaded.restoreClaims(read);
+        ClaimManager.Claim plot = reloaded.getClaim(OWNER, "plot");
+        assertNotNull(plot.getParent());
+        assertEquals("town", plot.getParent().getName());
+    }
+
+    // A claim with a subclaim, flags and a trusted player, plus a claim of another owner
+    private static void createSampleClaims(ClaimManager claimManager) {
+        assertTrue(claimManager.createClaim(OWNER, "town", WORLD, 0, 0, 99, 99).isSuccess());
+        assertTrue(claimManager.createSubclaim(OWNER, "town", "plot", WORLD, 10, 10, 20, 20).isSuccess());
+        assertTrue(claimManager.createClaim(OTHER_OWNER, "farm", WORLD, -200, -200, -150, -150).isSuccess());
+        claimManager.setFlag(OWNER, "town", ClaimManager.Claim.PVP, true);
+        claimManager.setFlag(OWNER, "plot", ClaimManager.Claim.INTERACT, false);
+        claimManager.setTrusted(OWNER, "plot", FRIEND, true);
+    }
+
+    private static void assertSameClaims(List<ClaimManager.Claim> expected, List<ClaimManager.Claim> actual) {
+        assertEquals(describe(expected), describe(actual));
+    }
+
+    private static List<String> describe(List<ClaimManager.Claim> claims) {
+        List<String> lines = new ArrayList<>();
+        for (ClaimManager.Claim claim : claims) {
+            List<UUID> trusted = new ArrayList<>(claim.getTrusted());
+            Collections.sort(trusted);
+            lines.add(String.join(" ", Arrays.asList(claim.getOwner().toString(), claim.getName(), claim.getWorldName(),
+                    claim.getMinX() + "," + claim.getMinZ() + "," + claim.getMaxX() + "," + claim.getMaxZ(),
+                    Integer.toString(claim.getFlags()), trusted.toString(), String.valueOf(claim.getParentName()))));
+        }
+        lines.sort(Comparator.naturalOrder());
+        return lines;
+    }
+}